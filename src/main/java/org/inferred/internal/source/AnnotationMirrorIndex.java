@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+
+import java.lang.annotation.Annotation;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Index of the annotation mirrors on each element, by the qualified name of their type, built the
+ * first time the element is queried in a round.
+ *
+ * <p>An index only exists between {@link #startRound()} and {@link #endRound()} on the thread
+ * processing the round, as elements may gain annotations of types generated in the next one, so
+ * no index outlives its round or is shared between compilations. Queries outside a round scan the
+ * element's annotations directly.
+ */
+final class AnnotationMirrorIndex {
+
+  /** The index for the round being processed on this thread, if any. */
+  private static final ThreadLocal<AnnotationMirrorIndex> ACTIVE =
+      new ThreadLocal<AnnotationMirrorIndex>();
+
+  private static class UnshadedNameLoader extends CacheLoader<Class<?>, String> {
+    @Override
+    public String load(Class<?> cls) {
+      return Shading.unshadedName(cls.getCanonicalName());
+    }
+  }
+
+  private static final LoadingCache<Class<?>, String> UNSHADED_NAMES =
+      CacheBuilder.newBuilder().weakKeys().build(new UnshadedNameLoader());
+
+  /** Starts indexing the annotation mirrors of elements queried on this thread. */
+  static void startRound() {
+    ACTIVE.set(new AnnotationMirrorIndex());
+  }
+
+  /** Discards the index for this thread's round. */
+  static void endRound() {
+    ACTIVE.remove();
+  }
+
+  /**
+   * Returns the mirror of the annotation on {@code element} with type {@code name}, or null if
+   * there is none.
+   */
+  static AnnotationMirror find(Element element, String name) {
+    AnnotationMirrorIndex index = ACTIVE.get();
+    if (index != null) {
+      return index.mirrorsOf(element).get(name);
+    }
+    for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+      if (nameOf(mirror).equals(name)) {
+        return mirror;
+      }
+    }
+    return null;
+  }
+
+  private final Map<Element, ImmutableMap<String, AnnotationMirror>> mirrors =
+      new HashMap<Element, ImmutableMap<String, AnnotationMirror>>();
+
+  private AnnotationMirrorIndex() {}
+
+  private ImmutableMap<String, AnnotationMirror> mirrorsOf(Element element) {
+    ImmutableMap<String, AnnotationMirror> elementMirrors = mirrors.get(element);
+    if (elementMirrors == null) {
+      Map<String, AnnotationMirror> mirrorsByName = new LinkedHashMap<String, AnnotationMirror>();
+      for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+        String name = nameOf(mirror);
+        if (!mirrorsByName.containsKey(name)) {
+          mirrorsByName.put(name, mirror);
+        }
+      }
+      elementMirrors = ImmutableMap.copyOf(mirrorsByName);
+      mirrors.put(element, elementMirrors);
+    }
+    return elementMirrors;
+  }
+
+  private static String nameOf(AnnotationMirror mirror) {
+    return ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+  }
+
+  /** Returns the unshaded name of {@code annotationClass}, as it will appear in the index. */
+  static String nameOf(Class<? extends Annotation> annotationClass) {
+    return UNSHADED_NAMES.getUnchecked(annotationClass);
+  }
+
+}
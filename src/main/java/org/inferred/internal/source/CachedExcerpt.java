@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+
+import org.inferred.internal.source.feature.FeatureSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * An {@link Excerpt} whose rendering depends only on its value and the features of the builder,
+ * so is rendered once per {@link FeatureSet} and replayed thereafter.
+ *
+ * <p>Types are not shortened in the cached rendering, as that depends on the imports of each
+ * compilation unit; instead, the cache holds literal text interleaved with the types, which are
+ * shortened by the target builder on every replay, in the original order.
+ *
+ * <p>Renderings that contain a {@link TypeMirror} are replayed once but not cached, as the cache
+ * would keep the compiler's model alive. Renderings whose text contains the private-use characters
+ * marking types cannot be split, so such excerpts are rendered again directly.
+ */
+abstract class CachedExcerpt extends Excerpt {
+
+  private static final int MAX_RENDERINGS_PER_FEATURE_SET = 1000;
+  private static final char TYPE_START = '\uE000';  // Private use area
+  private static final char TYPE_END = '\uE001';
+
+  /** Renderings by feature set, then by excerpt. The values hold no reference to their key. */
+  private static final Map<FeatureSet, Cache<Excerpt, Rendering>> RENDERINGS =
+      new WeakHashMap<FeatureSet, Cache<Excerpt, Rendering>>();
+
+  /** Renders this excerpt into {@code code}. Must not depend on anything but value and features. */
+  protected abstract void render(SourceBuilder code);
+
+  @Override
+  public final void addTo(SourceBuilder code) {
+    if (!(code instanceof SourceStringBuilder) || ExcerptTemplate.renderingDeferredExcerpt()) {
+      // Holes in a deferred template excerpt render arguments that are not part of this value.
+      render(code);
+      return;
+    }
+    SourceStringBuilder builder = (SourceStringBuilder) code;
+    Cache<Excerpt, Rendering> renderings = renderings(builder.features());
+    Rendering rendering = renderings.getIfPresent(this);
+    if (rendering == null) {
+      rendering = Rendering.of(this, builder.features());
+      if (rendering == Rendering.UNSPLITTABLE) {
+        render(code);
+        return;
+      }
+      if (!rendering.holdsTypeMirror) {
+        renderings.put(this, rendering);
+      }
+    }
+    rendering.replay(code);
+  }
+
+  private static Cache<Excerpt, Rendering> renderings(FeatureSet features) {
+    synchronized (RENDERINGS) {
+      Cache<Excerpt, Rendering> renderings = RENDERINGS.get(features);
+      if (renderings == null) {
+        renderings = CacheBuilder.newBuilder()
+            .maximumSize(MAX_RENDERINGS_PER_FEATURE_SET)
+            .build();
+        RENDERINGS.put(features, renderings);
+      }
+      return renderings;
+    }
+  }
+
+  /** Literal text interleaved with types to shorten. */
+  private static final class Rendering {
+
+    /** Returned if the excerpt's own text contains a type marker. */
+    static final Rendering UNSPLITTABLE = new Rendering(ImmutableList.<Object>of(), false);
+
+    static Rendering of(CachedExcerpt excerpt, FeatureSet features) {
+      TypeRecorder recorder = new TypeRecorder();
+      SourceStringBuilder builder = new SourceStringBuilder(recorder, features);
+      excerpt.render(builder);
+      String text = builder.toString();
+      if (CharMatcher.is(TYPE_START).countIn(text) != recorder.types.size()) {
+        return UNSPLITTABLE;
+      }
+      ImmutableList.Builder<Object> segments = ImmutableList.builder();
+      int start = 0;
+      int typeStart;
+      while ((typeStart = text.indexOf(TYPE_START, start)) != -1) {
+        int typeEnd = text.indexOf(TYPE_END, typeStart);
+        if (typeStart > start) {
+          segments.add(text.substring(start, typeStart));
+        }
+        segments.add(recorder.types.get(Integer.parseInt(text.substring(typeStart + 1, typeEnd))));
+        start = typeEnd + 1;
+      }
+      if (start < text.length()) {
+        segments.add(text.substring(start));
+      }
+      return new Rendering(segments.build(), recorder.sawTypeMirror);
+    }
+
+    /** Strings are literal text; anything else is a type to pass to the target builder. */
+    private final ImmutableList<Object> segments;
+    /** Whether any segment is a {@link TypeMirror}, so the rendering must not be cached. */
+    final boolean holdsTypeMirror;
+
+    private Rendering(ImmutableList<Object> segments, boolean holdsTypeMirror) {
+      this.segments = segments;
+      this.holdsTypeMirror = holdsTypeMirror;
+    }
+
+    void replay(SourceBuilder code) {
+      for (Object segment : segments) {
+        code.add("%s", segment);
+      }
+    }
+  }
+
+  /** Replaces each type with a token referencing it, to be split out after rendering. */
+  private static final class TypeRecorder implements TypeShortener {
+    final List<Object> types = new ArrayList<Object>();
+    boolean sawTypeMirror = false;
+
+    @Override
+    public String shorten(TypeMirror mirror) {
+      sawTypeMirror = true;
+      return token(mirror);
+    }
+
+    @Override
+    public String shorten(QualifiedName type) {
+      return token(type);
+    }
+
+    @Override
+    public String shorten(Class<?> cls) {
+      return token(cls);
+    }
+
+    private String token(Object type) {
+      types.add(type);
+      return TYPE_START + Integer.toString(types.size() - 1) + TYPE_END;
+    }
+  }
+}
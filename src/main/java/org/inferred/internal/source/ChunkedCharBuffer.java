@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A character buffer made of a rope of {@code char[]} chunks, so appending never copies
+ * previously-written text.
+ *
+ * <p>{@link #pooled() Pooled} buffers use fixed-size chunks recycled through a per-thread pool
+ * when {@link #release()} is called; the number of chunks retained adapts to the size of recently
+ * released buffers. Unpooled buffers, used for short-lived sub-builders, start with a small
+ * chunk and double the size of each new chunk up to the fixed size.
+ */
+final class ChunkedCharBuffer implements Appendable, CharSequence {
+
+  static final int CHUNK_SIZE = 8192;
+  private static final int MIN_UNPOOLED_CHUNK_SIZE = 64;
+
+  private static final int MIN_RETAINED_CHUNKS = 4;
+
+  /**
+   * Recycled chunks for the current thread. Only JDK types are stored in the thread-local, so
+   * a long-lived compiler thread does not pin the processor's class loader.
+   */
+  private static final ThreadLocal<Deque<char[]>> POOL = new ThreadLocal<Deque<char[]>>() {
+    @Override
+    protected Deque<char[]> initialValue() {
+      return new ArrayDeque<char[]>();
+    }
+  };
+
+  /**
+   * Running estimate of the length of a released buffer, used to size new buffers and to decide
+   * how many chunks are worth retaining. Races only make the estimate less accurate.
+   */
+  private static volatile long averageLength = CHUNK_SIZE;
+
+  /** Returns a new buffer whose chunks will be recycled when {@link #release()} is called. */
+  static ChunkedCharBuffer pooled() {
+    return new ChunkedCharBuffer(true);
+  }
+
+  private static int expectedChunks() {
+    return (int) ((averageLength + CHUNK_SIZE - 1) / CHUNK_SIZE);
+  }
+
+  private final boolean pooled;
+  private final List<char[]> chunks;
+  /** The chunk currently being written to, or null if none has been allocated yet. */
+  private char[] current;
+  /** The number of characters written to {@link #current}. */
+  private int used;
+  private int length;
+  private String cachedString;
+  private boolean released;
+
+  /** Returns a new, unpooled buffer. */
+  ChunkedCharBuffer() {
+    this(false);
+  }
+
+  private ChunkedCharBuffer(boolean pooled) {
+    this.pooled = pooled;
+    this.chunks = new ArrayList<char[]>(pooled ? expectedChunks() + 1 : 2);
+  }
+
+  @Override
+  public ChunkedCharBuffer append(CharSequence csq) {
+    if (csq == null) {
+      return append("null");
+    }
+    return append(csq, 0, csq.length());
+  }
+
+  @Override
+  public ChunkedCharBuffer append(CharSequence csq, int start, int end) {
+    if (csq == null) {
+      return append("null", start, end);
+    }
+    checkPositionIndexes(start, end, csq.length());
+    beforeWrite();
+    while (start < end) {
+      int n = Math.min(end - start, ensureSpace());
+      if (csq instanceof String) {
+        ((String) csq).getChars(start, start + n, current, used);
+      } else {
+        for (int i = 0; i < n; i++) {
+          current[used + i] = csq.charAt(start + i);
+        }
+      }
+      used += n;
+      length += n;
+      start += n;
+    }
+    return this;
+  }
+
+  @Override
+  public ChunkedCharBuffer append(char c) {
+    beforeWrite();
+    ensureSpace();
+    current[used++] = c;
+    length++;
+    return this;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    checkState(!released, "Buffer has been released");
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+    }
+    for (char[] chunk : chunks) {
+      int chunkLength = (chunk == current) ? used : chunk.length;
+      if (index < chunkLength) {
+        return chunk[index];
+      }
+      index -= chunkLength;
+    }
+    throw new AssertionError();
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return toString().substring(start, end);
+  }
+
+  /** Returns read-only views of the chunks of this buffer, in order, without copying them. */
+  List<CharSequence> chunks() {
+    checkState(!released, "Buffer has been released");
+    List<CharSequence> views = new ArrayList<CharSequence>(chunks.size());
+    for (char[] chunk : chunks) {
+      int chunkLength = (chunk == current) ? used : chunk.length;
+      views.add(CharBuffer.wrap(chunk, 0, chunkLength).asReadOnlyBuffer());
+    }
+    return Collections.unmodifiableList(views);
+  }
+
+  /** Appends the contents of this buffer to {@code destination}, chunk by chunk. */
+  void writeTo(Appendable destination) throws IOException {
+    checkState(!released, "Buffer has been released");
+    if (destination instanceof Writer) {
+      Writer writer = (Writer) destination;
+      for (char[] chunk : chunks) {
+        writer.write(chunk, 0, (chunk == current) ? used : chunk.length);
+      }
+    } else {
+      for (CharSequence chunk : chunks()) {
+        destination.append(chunk);
+      }
+    }
+  }
+
+  /**
+   * Returns the pooled chunks of this buffer to the current thread's pool for reuse. The buffer
+   * must not be used afterwards. Does nothing for unpooled buffers.
+   */
+  void release() {
+    if (pooled && !released) {
+      released = true;
+      Deque<char[]> pool = POOL.get();
+      averageLength = (3 * averageLength + length) / 4;
+      int maxRetained = Math.max(MIN_RETAINED_CHUNKS, 2 * expectedChunks());
+      for (char[] chunk : chunks) {
+        if (pool.size() >= maxRetained) {
+          break;
+        }
+        if (chunk.length == CHUNK_SIZE) {
+          pool.addFirst(chunk);
+        }
+      }
+      chunks.clear();
+      current = null;
+      cachedString = null;
+    }
+  }
+
+  /** Returns the contents of this buffer as a string, copying it only if it has changed. */
+  @Override
+  public String toString() {
+    checkState(!released, "Buffer has been released");
+    if (cachedString == null && chunks.size() <= 1) {
+      cachedString = (current == null) ? "" : new String(current, 0, used);
+    } else if (cachedString == null) {
+      StringBuilder result = new StringBuilder(length);
+      for (char[] chunk : chunks) {
+        result.append(chunk, 0, (chunk == current) ? used : chunk.length);
+      }
+      cachedString = result.toString();
+    }
+    return cachedString;
+  }
+
+  private void beforeWrite() {
+    checkState(!released, "Buffer has been released");
+    cachedString = null;
+  }
+
+  /** Ensures {@link #current} has space for at least one more character, returning how much. */
+  private int ensureSpace() {
+    if (current == null || used == current.length) {
+      if (pooled) {
+        current = POOL.get().pollFirst();
+        if (current == null) {
+          current = new char[CHUNK_SIZE];
+        }
+      } else if (current == null) {
+        current = new char[MIN_UNPOOLED_CHUNK_SIZE];
+      } else {
+        current = new char[Math.min(current.length * 2, CHUNK_SIZE)];
+      }
+      chunks.add(current);
+      used = 0;
+    }
+    return current.length - used;
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.Element;
+
+/**
+ * Collects the compilation units generated in a round, formats them concurrently, then writes
+ * them to the {@link Filer} in the order they were added.
+ *
+ * <p>Formatting is pure string-to-string work, so it is the only part done off the calling
+ * thread; everything touching the processing environment (rendering, error reporting, the
+ * {@code Filer}) stays on the processor thread.
+ *
+ * <pre>
+ * CompilationUnitBatch batch = new CompilationUnitBatch(filer);
+ * for (TypeElement type : types) {
+ *   batch.add(generate(type), type);
+ * }
+ * batch.writeAll();</pre>
+ */
+public class CompilationUnitBatch {
+
+  private static final class PendingUnit {
+    final CompilationUnitBuilder unit;
+    final Element originatingElement;
+    final SourceFormatter formatter;
+    final String unformattedBody;
+
+    PendingUnit(CompilationUnitBuilder unit, Element originatingElement) {
+      this.unit = unit;
+      this.originatingElement = originatingElement;
+      this.formatter = unit.formatter();
+      this.unformattedBody = (formatter == null) ? null : unit.unformattedBody();
+    }
+  }
+
+  private final Filer filer;
+  private final int parallelism;
+  private final List<PendingUnit> units = new ArrayList<PendingUnit>();
+
+  /** Returns a batch formatting on up to one thread per available processor. */
+  public CompilationUnitBatch(Filer filer) {
+    this(filer, Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Returns a batch formatting on up to {@code parallelism} threads. */
+  public CompilationUnitBatch(Filer filer, int parallelism) {
+    checkArgument(parallelism > 0, "parallelism must be positive (got %s)", parallelism);
+    this.filer = filer;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Adds {@code unit} to the batch. Nothing more may be added to {@code unit}; it will be written
+   * and released by {@link #writeAll()}.
+   */
+  public CompilationUnitBatch add(CompilationUnitBuilder unit, Element originatingElement) {
+    units.add(new PendingUnit(unit, originatingElement));
+    return this;
+  }
+
+  /**
+   * Formats every unit in the batch, then writes them to the {@link Filer} in order on the
+   * calling thread. The batch is empty afterwards.
+   *
+   * <p>If writing a unit fails, the remaining units are not written, but are still released.
+   */
+  public void writeAll() throws IOException {
+    List<PendingUnit> toWrite = new ArrayList<PendingUnit>(units);
+    units.clear();
+    int threads = Math.min(parallelism, toWrite.size());
+    ExecutorService executor = (threads > 1)
+        ? Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("source-formatter-%d")
+            .build())
+        : null;
+    ListeningExecutorService formattingExecutor = (executor != null)
+        ? MoreExecutors.listeningDecorator(executor)
+        : MoreExecutors.sameThreadExecutor();
+    try {
+      List<Future<String>> formattedBodies = new ArrayList<Future<String>>();
+      for (PendingUnit pending : toWrite) {
+        formattedBodies.add(format(formattingExecutor, pending));
+      }
+      for (int i = 0; i < toWrite.size(); i++) {
+        write(toWrite.get(i), formattedBodies.get(i));
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+      for (PendingUnit pending : toWrite) {
+        pending.unit.release();
+      }
+    }
+  }
+
+  private static ListenableFuture<String> format(
+      ListeningExecutorService executor, final PendingUnit pending) {
+    if (pending.formatter == null) {
+      return Futures.immediateFuture(null);
+    }
+    final Tracer tracer = Tracer.active();
+    return executor.submit(new Callable<String>() {
+      @Override
+      public String call() throws SourceFormatter.FormattingException {
+        Tracer.Span span = Tracer.start(tracer, "format", pending.unit.getClassToWrite());
+        try {
+          return pending.formatter.formatSource(pending.unformattedBody);
+        } finally {
+          span.end();
+        }
+      }
+    });
+  }
+
+  private void write(final PendingUnit pending, Future<String> formattedBody)
+      throws IOException {
+    final String body = getFormattedBody(pending, formattedBody);
+    FilerUtils.write(
+        filer,
+        pending.unit.getClassToWrite(),
+        pending.originatingElement,
+        pending.unit.skipUnchanged(),
+        new FilerUtils.Content() {
+          @Override
+          void writeTo(Writer writer) throws IOException {
+            pending.unit.writeTo(writer, body);
+          }
+        });
+  }
+
+  /** Returns the formatted body of {@code pending}, or null to write it exactly as built. */
+  private static String getFormattedBody(PendingUnit pending, Future<String> formattedBody) {
+    try {
+      return formattedBody.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof SourceFormatter.FormattingException) {
+        pending.unit.formattingFailed((SourceFormatter.FormattingException) e.getCause());
+        return pending.unformattedBody;
+      }
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+}
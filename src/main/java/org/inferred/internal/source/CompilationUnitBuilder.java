@@ -15,25 +15,34 @@
  */
 package org.inferred.internal.source;
 
-import com.google.googlejavaformat.java.Formatter;
+import static org.inferred.internal.source.feature.SourceFormatting.SOURCE_FORMATTING;
+
+import com.google.common.base.Optional;
 
 import org.inferred.internal.source.feature.EnvironmentFeatureSet;
 import org.inferred.internal.source.feature.Feature;
 import org.inferred.internal.source.feature.FeatureType;
+import org.inferred.internal.source.feature.SourceFormatting;
 
+import java.io.IOException;
 import java.util.Collection;
 
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
 import javax.annotation.processing.ProcessingEnvironment;
-import javax.lang.model.element.PackageElement;
-import javax.lang.model.element.TypeElement;
-import javax.lang.model.util.ElementFilter;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic.Kind;
 
 /** {@code SourceBuilder} which also handles package declaration and imports. */
 public class CompilationUnitBuilder implements SourceBuilder {
 
   private final ImportManager importManager;
-  private final SourceBuilder source;
+  private final SourceStringBuilder source;
   private final QualifiedName classToWrite;
+  private final Messager messager;
+  private final Optional<FormattedSourceCache> formatCache;
+  private final boolean skipUnchanged;
+  private final Tracer.Span renderSpan;
 
   /**
    * Returns a {@link CompilationUnitBuilder} for {@code classToWrite}. The file preamble (package
@@ -44,19 +53,22 @@ public class CompilationUnitBuilder implements SourceBuilder {
       QualifiedName classToWrite,
       Collection<QualifiedName> nestedClasses) {
     this.classToWrite = classToWrite;
+    this.renderSpan = Tracer.start("render", classToWrite);
+    this.messager = env.getMessager();
+    this.formatCache = FormattedSourceCache.forEnvironment(env);
+    this.skipUnchanged = FilerUtils.skipUnchanged(env);
     // Write the source code into an intermediate SourceStringBuilder, as the imports need to be
     // written first, but aren't known yet.
     ImportManager.Builder importManagerBuilder = new ImportManager.Builder();
     importManagerBuilder.addImplicitImport(classToWrite);
-    PackageElement pkg = env.getElementUtils().getPackageElement(classToWrite.getPackage());
-    for (TypeElement sibling : ElementFilter.typesIn(pkg.getEnclosedElements())) {
-      importManagerBuilder.addImplicitImport(QualifiedName.of(sibling));
-    }
+    importManagerBuilder.setPackageMembers(
+        PackageMemberIndex.addGeneratedType(env.getElementUtils(), classToWrite));
     for (QualifiedName nestedClass : nestedClasses) {
       importManagerBuilder.addImplicitImport(nestedClass);
     }
     importManager = importManagerBuilder.build();
-    source = new SourceStringBuilder(importManager, new EnvironmentFeatureSet(env));
+    source = new SourceStringBuilder(
+        importManager, EnvironmentFeatureSet.forEnvironment(env), ChunkedCharBuffer.pooled());
   }
 
   @Override
@@ -87,45 +99,144 @@ public class CompilationUnitBuilder implements SourceBuilder {
     return source.feature(feature);
   }
 
+  /**
+   * Writes the complete compilation unit, including package declaration and imports, to
+   * {@code destination}.
+   *
+   * <p>The preamble and imports are streamed directly; nothing is copied into an intermediate
+   * buffer. (Calls are not chained, as some {@link java.io.Writer} implementations return the
+   * wrong object from {@code append}.)
+   */
+  public void writeTo(Appendable destination) throws IOException {
+    writeTo(destination, formattedBody());
+  }
+
+  /**
+   * Writes the package declaration and imports to {@code destination}, followed by
+   * {@code formattedBody}, or by the body exactly as built if it is null. Everything written is
+   * already final, so a failure here can only come from {@code destination} itself.
+   */
+  void writeTo(Appendable destination, String formattedBody) throws IOException {
+    writePreamble(destination);
+    if (formattedBody == null) {
+      source.writeTo(destination);
+    } else {
+      destination.append(formattedBody);
+    }
+  }
+
+  /** Writes the package declaration and imports to {@code destination}. */
+  private void writePreamble(Appendable destination) throws IOException {
+    renderSpan.end();
+    Tracer.Span span = Tracer.start("imports", classToWrite);
+    try {
+      destination.append("// Autogenerated code. Do not modify.\n");
+      destination.append("package ");
+      destination.append(classToWrite.getPackage());
+      destination.append(";\n\n");
+      if (!importManager.getClassImports().isEmpty()) {
+        for (String classImport : importManager.getClassImports()) {
+          destination.append("import ");
+          destination.append(classImport);
+          destination.append(";\n");
+        }
+        destination.append("\n");
+      }
+    } finally {
+      span.end();
+    }
+  }
+
+  /**
+   * Returns the formatter to run over the body of this unit, or null if it is to be written
+   * exactly as built. If a {@link FormattedSourceCache} is configured, the formatter will consult
+   * it first.
+   */
+  SourceFormatter formatter() {
+    SourceFormatting formatting = source.feature(SOURCE_FORMATTING);
+    if (formatting == SourceFormatting.NONE) {
+      return null;
+    } else if (formatCache.isPresent()) {
+      return formatCache.get().wrap(formatting.formatter());
+    } else {
+      return formatting.formatter();
+    }
+  }
+
+  /**
+   * Returns the body of this unit (everything after the imports), formatted, or null if it is to
+   * be written exactly as built.
+   */
+  String formattedBody() {
+    SourceFormatter formatter = formatter();
+    return (formatter == null) ? null : formatSource(formatter, unformattedBody());
+  }
+
+  /** Returns the body of this unit (everything after the imports), unformatted. */
+  String unformattedBody() {
+    renderSpan.end();
+    return source.toString();
+  }
+
+  /**
+   * Reports that the body of this unit could not be formatted. The source should be written
+   * unformatted: the compiler will give a far more precise error than the formatter if the
+   * generated code is invalid.
+   */
+  void formattingFailed(SourceFormatter.FormattingException e) {
+    messager.printMessage(Kind.WARNING, String.format(
+        "Could not format %s: %s", classToWrite, e.getMessage()));
+  }
+
+  /** Recycles the memory used to buffer the source. This builder must not be used afterwards. */
+  void release() {
+    source.release();
+  }
+
+  /**
+   * Writes the complete compilation unit to the correct file for the class being written, then
+   * recycles the memory used to buffer the source. This builder must not be used afterwards.
+   *
+   * @see FilerUtils#writeCompilationUnit(Filer, CompilationUnitBuilder, Element)
+   */
+  public void writeTo(Filer filer, Element originatingElement) throws IOException {
+    try {
+      FilerUtils.writeCompilationUnit(filer, this, originatingElement);
+    } finally {
+      release();
+    }
+  }
+
+  /** Returns whether writing this unit should leave an identical existing file untouched. */
+  boolean skipUnchanged() {
+    return skipUnchanged;
+  }
+
+  /** Returns the qualified name of the class being written. */
+  public QualifiedName getClassToWrite() {
+    return classToWrite;
+  }
+
   @Override
   public String toString() {
     StringBuilder unit = new StringBuilder();
-    unit.append("// Autogenerated code. Do not modify.\n")
-        .append("package ").append(classToWrite.getPackage()).append(";\n")
-        .append("\n");
-    if (!importManager.getClassImports().isEmpty()) {
-      for (String classImport : importManager.getClassImports()) {
-        unit.append("import ").append(classImport).append(";\n");
-      }
-      unit.append("\n");
+    try {
+      writeTo(unit);
+    } catch (IOException e) {
+      throw new AssertionError(e);
     }
-    unit.append(formatSource(source.toString()));
     return unit.toString();
   }
 
-  private static String formatSource(String source) {
+  private String formatSource(SourceFormatter formatter, String unformattedSource) {
+    Tracer.Span span = Tracer.start("format", classToWrite);
     try {
-      return new Formatter().formatSource(source);
-    } catch (UnsupportedClassVersionError e) {
-      // Formatter requires Java 7+; do no formatting in Java 6.
-      return source;
-    } catch (Error e) {
-      // There's lots of weird ways this can fail; fall back to bad formatting
-      return source;
-    } catch (Exception e) {
-      StringBuilder message = new StringBuilder()
-          .append("Formatter failed:\n")
-          .append(e.getMessage())
-          .append("\nGenerated source:");
-      int lineNo = 0;
-      for (String line : source.split("\n")) {
-        message
-            .append("\n")
-            .append(++lineNo)
-            .append(": ")
-            .append(line);
-      }
-      throw new RuntimeException(message.toString());
+      return formatter.formatSource(unformattedSource);
+    } catch (SourceFormatter.FormattingException e) {
+      formattingFailed(e);
+      return unformattedSource;
+    } finally {
+      span.end();
     }
   }
 }
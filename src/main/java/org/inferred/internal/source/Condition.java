@@ -0,0 +1,375 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.regex.Pattern;
+
+/**
+ * A boolean expression excerpt that knows its own operator precedence, so it can be negated and
+ * nested without rendering it to check for operators.
+ *
+ * <p>Operands that are not themselves conditions are written exactly as given, so must bind at
+ * least as tightly as the operator they are used with, e.g. {@code "a + b"} is a fine operand for
+ * {@link #equal} but {@code "a ? b : c"} is not.
+ */
+public abstract class Condition extends Excerpt {
+
+  /*
+   * Precedence levels of the Java operators used in conditions. Higher levels bind more tightly.
+   */
+  private static final int LOWEST = 0;
+  private static final int OR = 1;
+  private static final int AND = 2;
+  private static final int EQUALITY = 3;
+  private static final int RELATIONAL = 4;
+  private static final int UNARY = 5;
+  private static final int PRIMARY = 6;
+
+  /**
+   * Matches all operators with a lower precedence than unary negation (!).
+   *
+   * <p>False positives are acceptable, as the only downside is putting unnecessary brackets around
+   * the condition, so a simple check for offending characters is fine, even though they might
+   * actually be in a string.
+   */
+  private static final Pattern ANY_OPERATOR = Pattern.compile("[+=<>!&^|?:]|\\binstanceof\\b");
+
+  /**
+   * Returns {@code condition} if it is already a {@link Condition}, or a condition writing it
+   * unchanged otherwise.
+   *
+   * <p>The precedence of a string is determined once, here, by scanning it for operators. Any
+   * other excerpt is assumed to need brackets, and negating it requires rendering it.
+   */
+  public static Condition of(Object condition) {
+    if (condition instanceof Condition) {
+      return (Condition) condition;
+    } else if (condition instanceof String) {
+      return new RawString((String) condition);
+    } else {
+      return new RawExcerpt(condition);
+    }
+  }
+
+  /** Returns the condition {@code lhs == rhs}. */
+  public static Condition equal(Object lhs, Object rhs) {
+    return new Comparison(lhs, "==", rhs);
+  }
+
+  /** Returns the condition {@code lhs != rhs}. */
+  public static Condition notEqual(Object lhs, Object rhs) {
+    return new Comparison(lhs, "!=", rhs);
+  }
+
+  /** Returns the condition {@code lhs < rhs}. */
+  public static Condition lessThan(Object lhs, Object rhs) {
+    return new Comparison(lhs, "<", rhs);
+  }
+
+  /** Returns the condition {@code lhs <= rhs}. */
+  public static Condition lessThanOrEqual(Object lhs, Object rhs) {
+    return new Comparison(lhs, "<=", rhs);
+  }
+
+  /** Returns the condition {@code lhs > rhs}. */
+  public static Condition greaterThan(Object lhs, Object rhs) {
+    return new Comparison(lhs, ">", rhs);
+  }
+
+  /** Returns the condition {@code lhs >= rhs}. */
+  public static Condition greaterThanOrEqual(Object lhs, Object rhs) {
+    return new Comparison(lhs, ">=", rhs);
+  }
+
+  /** Returns the condition {@code expression instanceof type}. */
+  public static Condition instanceOf(Object expression, Object type) {
+    return new InstanceOf(expression, type);
+  }
+
+  /** Returns the condition {@code !condition}, cancelling out any double negation. */
+  public static Condition not(Object condition) {
+    return of(condition).negate();
+  }
+
+  /** Returns the conjunction of {@code conditions}, e.g. {@code a && b}. */
+  public static Condition and(Object first, Object second, Object... rest) {
+    return new Junction(" && ", AND, ImmutableList.builder().add(first, second).add(rest).build());
+  }
+
+  /** Returns the disjunction of {@code conditions}, e.g. {@code a || b}. */
+  public static Condition or(Object first, Object second, Object... rest) {
+    return new Junction(" || ", OR, ImmutableList.builder().add(first, second).add(rest).build());
+  }
+
+  Condition() {}
+
+  /** Returns the negation of this condition, as simply as it can be written. */
+  public Condition negate() {
+    return new Not(this);
+  }
+
+  /** Returns the precedence of the outermost operator of this condition. */
+  abstract int precedence();
+
+  @Override
+  protected boolean isImmutable() {
+    return true;
+  }
+
+  /** Returns {@code operand}, bracketed if it binds less tightly than {@code precedence}. */
+  private static Object operand(Object operand, int precedence) {
+    if (operand instanceof Condition && ((Condition) operand).precedence() < precedence) {
+      return Excerpts.add("(%s)", operand);
+    }
+    return operand;
+  }
+
+  private static final class Comparison extends Condition {
+    private final Object lhs;
+    private final String operator;
+    private final Object rhs;
+
+    Comparison(Object lhs, String operator, Object rhs) {
+      this.lhs = checkNotNull(lhs);
+      this.operator = operator;
+      this.rhs = checkNotNull(rhs);
+    }
+
+    @Override
+    public Condition negate() {
+      // Relational operators cannot be inverted, as every comparison with NaN is false
+      if (operator.equals("==")) {
+        return new Comparison(lhs, "!=", rhs);
+      } else if (operator.equals("!=")) {
+        return new Comparison(lhs, "==", rhs);
+      } else {
+        return super.negate();
+      }
+    }
+
+    @Override
+    int precedence() {
+      return isEquality() ? EQUALITY : RELATIONAL;
+    }
+
+    @Override
+    public void addTo(SourceBuilder source) {
+      source.add("%s %s %s",
+          operand(lhs, precedence()), operator, operand(rhs, precedence() + 1));
+    }
+
+    private boolean isEquality() {
+      return operator.equals("==") || operator.equals("!=");
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("lhs", lhs);
+      fields.add("operator", operator);
+      fields.add("rhs", rhs);
+    }
+  }
+
+  private static final class InstanceOf extends Condition {
+    private final Object expression;
+    private final Object type;
+
+    InstanceOf(Object expression, Object type) {
+      this.expression = checkNotNull(expression);
+      this.type = checkNotNull(type);
+    }
+
+    @Override
+    int precedence() {
+      return RELATIONAL;
+    }
+
+    @Override
+    public void addTo(SourceBuilder source) {
+      source.add("%s instanceof %s", operand(expression, RELATIONAL), type);
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("expression", expression);
+      fields.add("type", type);
+    }
+  }
+
+  private static final class Junction extends Condition {
+    private final String operator;
+    private final int precedence;
+    private final ImmutableList<Object> operands;
+
+    Junction(String operator, int precedence, ImmutableList<Object> operands) {
+      checkArgument(operands.size() >= 2, "Need at least two operands");
+      this.operator = operator;
+      this.precedence = precedence;
+      this.operands = operands;
+    }
+
+    @Override
+    int precedence() {
+      return precedence;
+    }
+
+    @Override
+    public void addTo(SourceBuilder source) {
+      String separator = "";
+      for (Object operand : operands) {
+        source.add("%s%s", separator, operand(of(operand), precedence));
+        separator = operator;
+      }
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("operator", operator);
+      fields.add("operands", operands);
+    }
+  }
+
+  private static final class Not extends Condition {
+    private final Condition condition;
+
+    Not(Condition condition) {
+      this.condition = condition;
+    }
+
+    @Override
+    public Condition negate() {
+      return condition;
+    }
+
+    @Override
+    int precedence() {
+      return UNARY;
+    }
+
+    @Override
+    public void addTo(SourceBuilder source) {
+      source.add("!%s", operand(condition, UNARY));
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("condition", condition);
+    }
+  }
+
+  /** A condition given as source text. */
+  private static final class RawString extends Condition {
+    private final String text;
+    private final boolean hasOperators;
+
+    RawString(String text) {
+      this.text = text;
+      this.hasOperators = ANY_OPERATOR.matcher(text).find();
+    }
+
+    @Override
+    public Condition negate() {
+      if (text.startsWith("!")) {
+        // Only "!x" for a primary x can be negated by stripping the "!"; "!a || b" cannot.
+        RawString operand = new RawString(text.substring(1));
+        if (!operand.hasOperators) {
+          return operand;
+        }
+      }
+      return super.negate();
+    }
+
+    @Override
+    int precedence() {
+      return hasOperators ? LOWEST : PRIMARY;
+    }
+
+    @Override
+    public void addTo(SourceBuilder source) {
+      source.add("%s", text);
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("text", text);
+    }
+  }
+
+  /** A condition given as an arbitrary excerpt, which must be rendered to be negated. */
+  private static final class RawExcerpt extends Condition {
+    private final Object excerpt;
+
+    RawExcerpt(Object excerpt) {
+      this.excerpt = checkNotNull(excerpt);
+    }
+
+    @Override
+    public Condition negate() {
+      return new RenderedNegation(excerpt);
+    }
+
+    @Override
+    int precedence() {
+      return LOWEST;
+    }
+
+    @Override
+    public void addTo(SourceBuilder source) {
+      source.add("%s", excerpt);
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("excerpt", excerpt);
+    }
+  }
+
+  /** The negation of an excerpt, simplified by inspecting the excerpt's rendered text. */
+  private static final class RenderedNegation extends Condition {
+    private final Object excerpt;
+
+    RenderedNegation(Object excerpt) {
+      this.excerpt = excerpt;
+    }
+
+    @Override
+    public Condition negate() {
+      return new RawExcerpt(excerpt);
+    }
+
+    @Override
+    int precedence() {
+      return LOWEST;
+    }
+
+    @Override
+    public void addTo(SourceBuilder source) {
+      SourceStringBuilder subBuilder = source.subBuilder();
+      subBuilder.add("%s", excerpt);
+      source.add("%s", of(subBuilder.toString()).negate());
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("excerpt", excerpt);
+    }
+  }
+}
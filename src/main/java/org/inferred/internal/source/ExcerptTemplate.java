@@ -0,0 +1,453 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Arrays.asList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.inferred.internal.source.feature.Feature;
+import org.inferred.internal.source.feature.FeatureType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An {@link Excerpt} tree with holes, compiled once into a flat list of literal text, hole and
+ * value instructions, so each use only replays the list rather than re-walking the tree and
+ * re-parsing its format strings.
+ *
+ * <pre>
+ * private static final ExcerptTemplate GETTER = ExcerptTemplate.compile(Excerpts.add(
+ *     "public %s %s() {%n  return %s;%n}%n", hole(0), hole(1), hole(2)));
+ * ...
+ * code.add(GETTER.bind(property.getType(), property.getGetterName(), property.getName()));
+ * </pre>
+ *
+ * <p>Any excerpt in the tree that queries a {@link Feature} becomes a branch on that feature.
+ * Each branch is compiled the first time it is replayed into a builder with that feature value.
+ * Any excerpt that calls {@link SourceBuilder#subBuilder()}, such as a precondition check or a
+ * negated excerpt, is instead rendered in full on every replay, with its holes filled.
+ */
+public final class ExcerptTemplate {
+
+  /** Returns a placeholder for the {@code index}th argument passed to {@link #bind}. */
+  public static Hole hole(int index) {
+    checkArgument(index >= 0, "Hole index must be non-negative (got %s)", index);
+    return new Hole(index);
+  }
+
+  /** Compiles {@code definition}, which may contain {@link #hole holes} in {@code %s} slots. */
+  public static ExcerptTemplate compile(Excerpt definition) {
+    return new ExcerptTemplate(definition);
+  }
+
+  /**
+   * The arguments of the template whose {@link Deferred deferred} excerpt is being rendered on
+   * this thread, if any, for its holes to render.
+   */
+  private static final ThreadLocal<Object[]> DEFERRED_ARGS = new ThreadLocal<Object[]>();
+
+  /**
+   * Returns true if a deferred excerpt is being rendered on this thread, so renderings may
+   * depend on the arguments bound to its holes as well as on its value.
+   */
+  static boolean renderingDeferredExcerpt() {
+    return DEFERRED_ARGS.get() != null;
+  }
+
+  /**
+   * A placeholder for an argument of an {@link ExcerptTemplate}. Can only be rendered while a
+   * template bound to arguments is being replayed.
+   */
+  public static final class Hole extends Excerpt {
+    private final int index;
+
+    private Hole(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public void addTo(SourceBuilder source) {
+      Object[] args = DEFERRED_ARGS.get();
+      checkState(args != null, "Hole %s rendered outside a bound template", index);
+      checkState(index < args.length,
+          "Template needs %s arguments but got %s", index + 1, args.length);
+      // The argument does not depend on the template, so is rendered without its arguments.
+      DEFERRED_ARGS.remove();
+      try {
+        source.add("%s", args[index]);
+      } finally {
+        DEFERRED_ARGS.set(args);
+      }
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("index", index);
+    }
+  }
+
+  private final Excerpt definition;
+  private final ImmutableList<Instruction> instructions;
+  private final int arity;
+
+  private ExcerptTemplate(Excerpt definition) {
+    this.definition = checkNotNull(definition);
+    this.instructions = compile(ImmutableMap.<FeatureType<?>, Feature<?>>of());
+    this.arity = arity(instructions);
+  }
+
+  /**
+   * Returns an excerpt that replays this template, filling each {@link #hole(int) hole} with the
+   * corresponding element of {@code args}.
+   */
+  public Excerpt bind(Object... args) {
+    checkArgument(args.length >= arity,
+        "Template needs %s arguments but got %s", arity, args.length);
+    return new BoundTemplate(this, args);
+  }
+
+  private ImmutableList<Instruction> compile(Map<FeatureType<?>, Feature<?>> assumptions) {
+    Recorder recorder = new Recorder(assumptions);
+    try {
+      recorder.add(definition);
+    } catch (UnknownFeature e) {
+      return ImmutableList.<Instruction>of(new Branch(this, assumptions, e.featureType));
+    }
+    return recorder.build();
+  }
+
+  private static int arity(List<Instruction> instructions) {
+    int arity = 0;
+    for (Instruction instruction : instructions) {
+      if (instruction instanceof HoleInstruction) {
+        arity = Math.max(arity, ((HoleInstruction) instruction).index + 1);
+      } else if (instruction instanceof Unparsed) {
+        arity = Math.max(arity, ((Unparsed) instruction).arity());
+      }
+    }
+    return arity;
+  }
+
+  private static void replay(List<Instruction> instructions, SourceBuilder target, Object[] args) {
+    for (Instruction instruction : instructions) {
+      instruction.replay(target, args);
+    }
+  }
+
+  private static final class BoundTemplate extends Excerpt {
+    private final ExcerptTemplate template;
+    private final Object[] args;
+
+    BoundTemplate(ExcerptTemplate template, Object[] args) {
+      this.template = template;
+      this.args = args;
+    }
+
+    @Override
+    public void addTo(SourceBuilder source) {
+      replay(template.instructions, source, args);
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("template", template);
+      fields.add("args", asList(args));
+    }
+  }
+
+  private abstract static class Instruction {
+    abstract void replay(SourceBuilder target, Object[] args);
+  }
+
+  private static final class Literal extends Instruction {
+    private final String text;
+
+    Literal(String text) {
+      this.text = text;
+    }
+
+    @Override
+    void replay(SourceBuilder target, Object[] args) {
+      target.add("%s", text);
+    }
+  }
+
+  private static final class HoleInstruction extends Instruction {
+    private final int index;
+
+    HoleInstruction(int index) {
+      this.index = index;
+    }
+
+    @Override
+    void replay(SourceBuilder target, Object[] args) {
+      target.add("%s", args[index]);
+    }
+  }
+
+  /** A value that can only be rendered by the target builder, e.g. a type to shorten. */
+  private static final class Value extends Instruction {
+    private final Object value;
+
+    Value(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    void replay(SourceBuilder target, Object[] args) {
+      target.add("%s", value);
+    }
+  }
+
+  /**
+   * An excerpt that cannot be recorded, as it renders part of itself to a string with a
+   * {@link SourceBuilder#subBuilder() sub-builder}, so is rendered in full by the target builder,
+   * with any holes in it filled from the template arguments.
+   */
+  private static final class Deferred extends Instruction {
+    private final Excerpt excerpt;
+
+    Deferred(Excerpt excerpt) {
+      this.excerpt = excerpt;
+    }
+
+    @Override
+    void replay(SourceBuilder target, Object[] args) {
+      Object[] enclosingArgs = DEFERRED_ARGS.get();
+      DEFERRED_ARGS.set(args);
+      try {
+        target.add(excerpt);
+      } finally {
+        if (enclosingArgs == null) {
+          DEFERRED_ARGS.remove();
+        } else {
+          DEFERRED_ARGS.set(enclosingArgs);
+        }
+      }
+    }
+  }
+
+  /**
+   * A format string that {@link FormatTemplate} cannot parse, passed through to the target
+   * builder with any holes filled.
+   */
+  private static final class Unparsed extends Instruction {
+    private final String fmt;
+    private final Object[] args;
+
+    Unparsed(String fmt, Object[] args) {
+      this.fmt = fmt;
+      this.args = args;
+    }
+
+    @Override
+    void replay(SourceBuilder target, Object[] templateArgs) {
+      Object[] filledArgs = args.clone();
+      for (int i = 0; i < filledArgs.length; i++) {
+        if (filledArgs[i] instanceof Hole) {
+          filledArgs[i] = templateArgs[((Hole) filledArgs[i]).index];
+        }
+      }
+      target.add(fmt, filledArgs);
+    }
+
+    int arity() {
+      int arity = 0;
+      for (Object arg : args) {
+        if (arg instanceof Hole) {
+          arity = Math.max(arity, ((Hole) arg).index + 1);
+        }
+      }
+      return arity;
+    }
+  }
+
+  /** Instructions depending on the value of a feature, compiled as each value is seen. */
+  private static final class Branch extends Instruction {
+    private final ExcerptTemplate template;
+    private final Map<FeatureType<?>, Feature<?>> assumptions;
+    private final FeatureType<?> featureType;
+    private final ConcurrentMap<Feature<?>, ImmutableList<Instruction>> variants =
+        new ConcurrentHashMap<Feature<?>, ImmutableList<Instruction>>();
+
+    Branch(
+        ExcerptTemplate template,
+        Map<FeatureType<?>, Feature<?>> assumptions,
+        FeatureType<?> featureType) {
+      this.template = template;
+      this.assumptions = assumptions;
+      this.featureType = featureType;
+    }
+
+    @Override
+    void replay(SourceBuilder target, Object[] args) {
+      Feature<?> value = feature(target, featureType);
+      ImmutableList<Instruction> variant = variants.get(value);
+      if (variant == null) {
+        variant = template.compile(ImmutableMap.<FeatureType<?>, Feature<?>>builder()
+            .putAll(assumptions)
+            .put(featureType, value)
+            .build());
+        variants.putIfAbsent(value, variant);
+      }
+      ExcerptTemplate.replay(variant, target, args);
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static Feature<?> feature(SourceBuilder target, FeatureType featureType) {
+      return target.feature(featureType);
+    }
+  }
+
+  /** Thrown by {@link Recorder} when the definition queries a feature not yet assumed. */
+  private static final class UnknownFeature extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final transient FeatureType<?> featureType;
+
+    UnknownFeature(FeatureType<?> featureType) {
+      this.featureType = featureType;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;  // Used for control flow only
+    }
+  }
+
+  /** Thrown by {@link Recorder} when an excerpt calls {@link SourceBuilder#subBuilder()}. */
+  private static final class SubBuilderUsed extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;  // Used for control flow only
+    }
+  }
+
+  /** Records the calls made by a template definition as a flat list of instructions. */
+  private static final class Recorder implements SourceBuilder, FormatTemplate.Destination {
+    private final Map<FeatureType<?>, Feature<?>> assumptions;
+    private final List<Instruction> instructions = new ArrayList<Instruction>();
+    private final StringBuilder literal = new StringBuilder();
+
+    Recorder(Map<FeatureType<?>, Feature<?>> assumptions) {
+      this.assumptions = assumptions;
+    }
+
+    ImmutableList<Instruction> build() {
+      flushLiteral();
+      return ImmutableList.copyOf(instructions);
+    }
+
+    @Override
+    public SourceBuilder add(String fmt, Object... args) {
+      FormatTemplate template = FormatTemplate.of(fmt);
+      if (template.isParsed()) {
+        template.renderTo(this, args);
+      } else {
+        flushLiteral();
+        instructions.add(new Unparsed(fmt, args));
+      }
+      return this;
+    }
+
+    @Override
+    public SourceBuilder addLine(String fmt, Object... args) {
+      add(fmt, args);
+      literal.append('\n');
+      return this;
+    }
+
+    @Override
+    public SourceBuilder add(Excerpt excerpt) {
+      if (excerpt instanceof Hole) {
+        appendArgument(excerpt);
+        return this;
+      }
+      int instructionCount = instructions.size();
+      String pendingLiteral = literal.toString();
+      try {
+        excerpt.addTo(this);
+      } catch (SubBuilderUsed e) {
+        // Discard anything recorded for the excerpt, and defer it to replay instead.
+        instructions.subList(instructionCount, instructions.size()).clear();
+        literal.setLength(0);
+        literal.append(pendingLiteral);
+        flushLiteral();
+        instructions.add(new Deferred(excerpt));
+      }
+      return this;
+    }
+
+    @Override
+    public SourceStringBuilder subBuilder() {
+      throw new SubBuilderUsed();
+    }
+
+    @Override
+    public <T extends Feature<T>> T feature(FeatureType<T> featureType) {
+      @SuppressWarnings("unchecked")
+      T feature = (T) assumptions.get(featureType);
+      if (feature == null) {
+        throw new UnknownFeature(featureType);
+      }
+      return feature;
+    }
+
+    @Override
+    public void append(CharSequence text) {
+      literal.append(text);
+    }
+
+    @Override
+    public void appendArgument(Object arg) {
+      if (arg instanceof Hole) {
+        flushLiteral();
+        instructions.add(new HoleInstruction(((Hole) arg).index));
+      } else if (arg instanceof Excerpt) {
+        add((Excerpt) arg);
+      } else if (arg == null || arg instanceof CharSequence || arg instanceof Number
+          || arg instanceof Character || arg instanceof Boolean) {
+        literal.append(FormatTemplate.stringValue(arg));
+      } else {
+        flushLiteral();
+        instructions.add(new Value(arg));
+      }
+    }
+
+    @Override
+    public Object substitute(Object arg) {
+      throw new AssertionError("Unparsed templates are not rendered");
+    }
+
+    private void flushLiteral() {
+      if (literal.length() > 0) {
+        instructions.add(new Literal(literal.toString()));
+        literal.setLength(0);
+      }
+    }
+  }
+}
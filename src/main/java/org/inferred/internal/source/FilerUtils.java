@@ -16,17 +16,109 @@
 package org.inferred.internal.source;
 
 import com.google.common.base.Throwables;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
 import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.Element;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
 
 /** Static utility methods for working with {@link Filer}. */
 public class FilerUtils {
 
+  /**
+   * Processor option which, if "true", keeps the timestamp of any generated file whose content has
+   * not changed since the last build.
+   */
+  static final String SKIP_UNCHANGED_OPTION = "org.inferred.source.skipunchanged";
+
+  /**
+   * Whether {@value #SKIP_UNCHANGED_OPTION} was set for each {@link Filer}, recorded by
+   * {@link #skipUnchanged(ProcessingEnvironment)} for callers that only pass the filer.
+   */
+  private static final Map<Filer, Boolean> SKIP_UNCHANGED = new WeakHashMap<Filer, Boolean>();
+
+  /** Counts of files written through each {@link Filer}. Values hold no reference to the key. */
+  private static final Map<Filer, WriteCounts> WRITE_COUNTS = new WeakHashMap<Filer, WriteCounts>();
+
+  /** Counts of generated files whose content changed, or was kept unchanged. */
+  static final class WriteCounts {
+    private int written;
+    private int unchanged;
+
+    synchronized int written() {
+      return written;
+    }
+
+    synchronized int unchanged() {
+      return unchanged;
+    }
+
+    private synchronized void record(boolean wasUnchanged) {
+      if (wasUnchanged) {
+        unchanged++;
+      } else {
+        written++;
+      }
+    }
+
+    @Override
+    public synchronized String toString() {
+      return written + " written, " + unchanged + " unchanged";
+    }
+  }
+
+  /**
+   * Returns whether {@value #SKIP_UNCHANGED_OPTION} is set for {@code env}, and records the answer
+   * for writes to its {@link Filer}.
+   */
+  static boolean skipUnchanged(ProcessingEnvironment env) {
+    boolean skipUnchanged = Boolean.parseBoolean(env.getOptions().get(SKIP_UNCHANGED_OPTION));
+    recordSkipUnchanged(env.getFiler(), skipUnchanged);
+    return skipUnchanged;
+  }
+
+  /** Records whether writes to {@code filer}, which may wrap the environment's, skip unchanged. */
+  static void recordSkipUnchanged(Filer filer, boolean skipUnchanged) {
+    synchronized (SKIP_UNCHANGED) {
+      SKIP_UNCHANGED.put(filer, skipUnchanged);
+    }
+  }
+
+  /**
+   * Returns whether {@value #SKIP_UNCHANGED_OPTION} was set for the environment of {@code filer},
+   * or false if no {@link SimpleTypeProcessor} or {@link CompilationUnitBuilder} has seen it.
+   */
+  private static boolean skipUnchanged(Filer filer) {
+    synchronized (SKIP_UNCHANGED) {
+      Boolean skipUnchanged = SKIP_UNCHANGED.get(filer);
+      return (skipUnchanged != null) && skipUnchanged;
+    }
+  }
+
+  /** Returns the counts of files written to {@code filer} with unchanged-file detection on. */
+  static WriteCounts writeCounts(Filer filer) {
+    synchronized (WRITE_COUNTS) {
+      WriteCounts counts = WRITE_COUNTS.get(filer);
+      if (counts == null) {
+        counts = new WriteCounts();
+        WRITE_COUNTS.put(filer, counts);
+      }
+      return counts;
+    }
+  }
+
   /**
    * Writes {@code source} to the correct file for {@code classToWrite}.
    *
@@ -38,12 +130,114 @@ public class FilerUtils {
       Filer filer,
       QualifiedName classToWrite,
       Element originatingElement,
-      String source) throws IOException {
-    Writer writer = filer
-        .createSourceFile(classToWrite.toString(), originatingElement)
-        .openWriter();
+      final String source) throws IOException {
+    write(filer, classToWrite, originatingElement, skipUnchanged(filer), new Content() {
+      @Override
+      void writeTo(Writer writer) throws IOException {
+        writer.append(source);
+      }
+    });
+  }
+
+  /**
+   * Writes {@code unit} to the correct file for the class it declares, streaming it directly into
+   * the {@link Filer}'s writer rather than copying it into a single string first.
+   *
+   * <p>The body is formatted before the file is created, so a formatter failure cannot leave a
+   * truncated file behind; only text that is already final is streamed.
+   */
+  public static void writeCompilationUnit(
+      Filer filer,
+      final CompilationUnitBuilder unit,
+      Element originatingElement) throws IOException {
+    final String formattedBody = unit.formattedBody();
+    write(filer, unit.getClassToWrite(), originatingElement, unit.skipUnchanged(), new Content() {
+      @Override
+      void writeTo(Writer writer) throws IOException {
+        unit.writeTo(writer, formattedBody);
+      }
+    });
+  }
+
+  /** Source code to write to a {@link Writer}. */
+  abstract static class Content {
+    abstract void writeTo(Writer writer) throws IOException;
+  }
+
+  /**
+   * Writes {@code content} to the correct file for {@code classToWrite}.
+   *
+   * <p>If {@code skipUnchanged} is true and the file already holds identical bytes, its timestamp
+   * is restored afterwards, so build tools see it as untouched. (The file must still be written
+   * through the {@link Filer}, or the compiler will not compile it this round.)
+   */
+  static void write(
+      Filer filer,
+      QualifiedName classToWrite,
+      Element originatingElement,
+      boolean skipUnchanged,
+      Content content) throws IOException {
+    Tracer.Span span = Tracer.start("write", classToWrite);
+    try {
+      writeUnit(filer, classToWrite, originatingElement, skipUnchanged, content);
+    } finally {
+      span.end();
+    }
+  }
+
+  private static void writeUnit(
+      Filer filer,
+      QualifiedName classToWrite,
+      Element originatingElement,
+      boolean skipUnchanged,
+      Content content) throws IOException {
+    JavaFileObject sourceFile = filer.createSourceFile(classToWrite.toString(), originatingElement);
+    File existingFile = skipUnchanged ? existingFile(sourceFile) : null;
+    HashCode existingHash = null;
+    long existingTimestamp = 0;
+    if (existingFile != null) {
+      existingTimestamp = existingFile.lastModified();
+      existingHash = hashOrNull(existingFile);
+    }
+    Writer writer = ProcessingStats.countingWriter(sourceFile.openWriter());
+    writeContent(writer, content);
+    boolean unchanged = false;
+    if (skipUnchanged) {
+      unchanged = existingHash != null
+          && existingHash.equals(hashOrNull(existingFile))
+          && existingFile.setLastModified(existingTimestamp);
+      writeCounts(filer).record(unchanged);
+    }
+    if (!unchanged) {
+      ProcessingStats.recordUnit(writer);
+    }
+  }
+
+  /**
+   * Returns the hash of {@code file}, or null if it cannot be read, in which case the unit is
+   * written as if it had changed.
+   */
+  private static HashCode hashOrNull(File file) {
+    try {
+      return Files.hash(file, Hashing.sha256());
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /** Returns the file {@code fileObject} will write to, if it exists on the local disk. */
+  private static File existingFile(FileObject fileObject) {
+    URI uri = fileObject.toUri();
+    if (!"file".equals(uri.getScheme())) {
+      return null;
+    }
+    File file = new File(uri);
+    return file.isFile() ? file : null;
+  }
+
+  private static void writeContent(Writer writer, Content content) throws IOException {
     try {
-      writer.append(source);
+      content.writeTo(writer);
     } catch (Throwable e) {
       try {
         writer.close();
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.List;
+import java.util.MissingFormatArgumentException;
+
+/**
+ * A format string, parsed once into literal runs and argument slots.
+ *
+ * <p>Only {@code %s}, {@code %n}, {@code %%} and explicitly-indexed {@code %1$s} conversions are
+ * understood; any other format string (widths, flags, {@code %d}, ...) is passed through to
+ * {@link String#format} unchanged, so the output is always identical.
+ */
+final class FormatTemplate {
+
+  /** Maximum number of distinct format strings to keep parsed. */
+  private static final int CACHE_SIZE = 2000;
+  private static final int MAX_INDEX_DIGITS = 4;
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+  private static class FormatTemplateLoader extends CacheLoader<String, FormatTemplate> {
+    @Override
+    public FormatTemplate load(String fmt) {
+      return parse(fmt);
+    }
+  }
+
+  private static final LoadingCache<String, FormatTemplate> TEMPLATES = CacheBuilder.newBuilder()
+      .maximumSize(CACHE_SIZE)
+      .build(new FormatTemplateLoader());
+
+  /** Returns the (possibly cached) template for {@code fmt}. */
+  static FormatTemplate of(String fmt) {
+    return TEMPLATES.getUnchecked(fmt);
+  }
+
+  /** The format string, if it could not be parsed; null otherwise. */
+  private final String fallback;
+  /** Literal text for each segment, or null if the segment is an argument slot. */
+  private final String[] literals;
+  /** Argument index for each slot segment; unused for literal segments. */
+  private final int[] argIndices;
+
+  private FormatTemplate(String fallback, String[] literals, int[] argIndices) {
+    this.fallback = fallback;
+    this.literals = literals;
+    this.argIndices = argIndices;
+  }
+
+  /**
+   * Returns true if this template was parsed into literals and {@code %s} slots, false if it will
+   * be passed to {@link String#format}.
+   */
+  boolean isParsed() {
+    return fallback == null;
+  }
+
+  /**
+   * Receives the output of a template, segment by segment, so arguments can be rendered straight
+   * into the final destination at their slot position.
+   */
+  interface Destination {
+    /** Appends literal text. */
+    void append(CharSequence text);
+
+    /** Appends the value of an argument slot. */
+    void appendArgument(Object arg);
+
+    /**
+     * Returns the value to pass to {@link String#format} for {@code arg}, if the template could
+     * not be parsed.
+     */
+    Object substitute(Object arg);
+  }
+
+  /** Renders this template, formatted with {@code args}, into {@code destination}. */
+  void renderTo(Destination destination, Object... args) {
+    if (fallback != null) {
+      Object[] substituteArgs = new Object[args.length];
+      for (int i = 0; i < args.length; i++) {
+        substituteArgs[i] = destination.substitute(args[i]);
+      }
+      destination.append(String.format(fallback, substituteArgs));
+      return;
+    }
+    for (int i = 0; i < literals.length; i++) {
+      if (literals[i] != null) {
+        destination.append(literals[i]);
+      } else {
+        int index = argIndices[i];
+        if (index >= args.length) {
+          throw new MissingFormatArgumentException("%s");
+        }
+        destination.appendArgument(args[index]);
+      }
+    }
+  }
+
+  /** Appends this template, formatted with {@code args}, to {@code destination}. */
+  void appendTo(final StringBuilder destination, Object... args) {
+    renderTo(new Destination() {
+      @Override
+      public void append(CharSequence text) {
+        destination.append(text);
+      }
+
+      @Override
+      public void appendArgument(Object arg) {
+        destination.append(stringValue(arg));
+      }
+
+      @Override
+      public Object substitute(Object arg) {
+        return arg;
+      }
+    }, args);
+  }
+
+  /** Returns {@code arg} as {@link String#format} would render it for a {@code %s} slot. */
+  static String stringValue(Object arg) {
+    if (arg instanceof Formattable) {
+      return String.format("%s", arg);
+    }
+    return String.valueOf(arg);
+  }
+
+  private static FormatTemplate parse(String fmt) {
+    List<String> literals = new ArrayList<String>();
+    List<Integer> argIndices = new ArrayList<Integer>();
+    StringBuilder literal = new StringBuilder();
+    int nextOrdinaryIndex = 0;
+    int i = 0;
+    while (i < fmt.length()) {
+      char c = fmt.charAt(i);
+      if (c != '%') {
+        literal.append(c);
+        i++;
+        continue;
+      }
+      if (i + 1 >= fmt.length()) {
+        return unparseable(fmt);
+      }
+      char conversion = fmt.charAt(i + 1);
+      int argIndex;
+      if (conversion == '%') {
+        literal.append('%');
+        i += 2;
+        continue;
+      } else if (conversion == 'n') {
+        literal.append(LINE_SEPARATOR);
+        i += 2;
+        continue;
+      } else if (conversion == 's') {
+        argIndex = nextOrdinaryIndex++;
+        i += 2;
+      } else {
+        // Explicit index: one or more digits, then "$s"
+        int j = i + 1;
+        while (j < fmt.length() && isAsciiDigit(fmt.charAt(j))) {
+          j++;
+        }
+        if (j == i + 1 || j > i + MAX_INDEX_DIGITS || fmt.charAt(i + 1) == '0'
+            || !fmt.startsWith("$s", j)) {
+          return unparseable(fmt);
+        }
+        argIndex = Integer.parseInt(fmt.substring(i + 1, j)) - 1;
+        i = j + 2;
+      }
+      if (literal.length() > 0) {
+        literals.add(literal.toString());
+        argIndices.add(-1);
+        literal.setLength(0);
+      }
+      literals.add(null);
+      argIndices.add(argIndex);
+    }
+    if (literal.length() > 0) {
+      literals.add(literal.toString());
+      argIndices.add(-1);
+    }
+    int[] indices = new int[argIndices.size()];
+    for (int k = 0; k < indices.length; k++) {
+      indices[k] = argIndices.get(k);
+    }
+    return new FormatTemplate(null, literals.toArray(new String[literals.size()]), indices);
+  }
+
+  private static boolean isAsciiDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static FormatTemplate unparseable(String fmt) {
+    return new FormatTemplate(fmt, null, null);
+  }
+}
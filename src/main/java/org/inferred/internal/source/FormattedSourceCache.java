@@ -0,0 +1,314 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Optional;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * An on-disk cache of formatted source, keyed by a SHA-256 hash of the unformatted source and
+ * the formatter version, so byte-identical units are not reformatted on every build.
+ *
+ * <p>Enabled by the {@value #DIRECTORY_OPTION} processor option; the cache is capped at
+ * {@value #MAX_SIZE_OPTION} bytes (default {@value #DEFAULT_MAX_SIZE}), evicting the least
+ * recently used entries first. Entries are written to a temporary file and renamed into place,
+ * so concurrent build workers sharing a directory never see a partial entry. Temporary files
+ * abandoned by a crashed worker are deleted once they are an hour old.
+ *
+ * <p>Each processing environment has its own instance, counting its own hits and misses, but the
+ * entries and size accounting of a directory are shared by every instance in the JVM.
+ */
+class FormattedSourceCache {
+
+  /** The processor option naming the cache directory. */
+  static final String DIRECTORY_OPTION = "org.inferred.source.formatcache";
+  /** The processor option giving the maximum total size of the cache, in bytes. */
+  static final String MAX_SIZE_OPTION = "org.inferred.source.formatcache.maxsize";
+  static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+  private static final String ENTRY_SUFFIX = ".java.txt";
+  private static final String TEMP_PREFIX = "tmp-";
+  /** Age after which a temporary file can no longer be in the middle of being renamed. */
+  private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+  /** Fraction of the maximum size to evict down to, so eviction does not run on every write. */
+  private static final double EVICTION_TARGET = 0.8;
+
+  /** Directories shared by every cache in this JVM, by canonical path. */
+  private static final Map<String, Directory> DIRECTORIES = new HashMap<String, Directory>();
+
+  /** The cache of each environment. Values hold no reference to their environment. */
+  private static final Map<ProcessingEnvironment, Optional<FormattedSourceCache>> CACHES =
+      new WeakHashMap<ProcessingEnvironment, Optional<FormattedSourceCache>>();
+
+  /**
+   * Returns the cache configured for {@code env}, or {@link Optional#absent()} if no cache
+   * directory has been configured. An invalid maximum size is reported once, as a warning, and
+   * the default used instead.
+   */
+  static Optional<FormattedSourceCache> forEnvironment(ProcessingEnvironment env) {
+    synchronized (CACHES) {
+      Optional<FormattedSourceCache> cache = CACHES.get(env);
+      if (cache == null) {
+        cache = createForEnvironment(env);
+        CACHES.put(env, cache);
+      }
+      return cache;
+    }
+  }
+
+  private static Optional<FormattedSourceCache> createForEnvironment(ProcessingEnvironment env) {
+    String directory = env.getOptions().get(DIRECTORY_OPTION);
+    if (directory == null || directory.isEmpty()) {
+      return Optional.absent();
+    }
+    String maxSizeOption = env.getOptions().get(MAX_SIZE_OPTION);
+    long maxSize = DEFAULT_MAX_SIZE;
+    if (maxSizeOption != null) {
+      try {
+        maxSize = Long.parseLong(maxSizeOption.trim());
+      } catch (NumberFormatException e) {
+        maxSize = -1;
+      }
+      if (maxSize <= 0) {
+        env.getMessager().printMessage(Kind.WARNING, String.format(
+            "Unrecognized value '%s' for option %s; using %s",
+            maxSizeOption, MAX_SIZE_OPTION, DEFAULT_MAX_SIZE));
+        maxSize = DEFAULT_MAX_SIZE;
+      }
+    }
+    return Optional.of(forDirectory(new File(directory), maxSize));
+  }
+
+  /** Returns a cache stored in {@code directory}, sharing its entries with any other user. */
+  static FormattedSourceCache forDirectory(File directory, long maxSize) {
+    String key;
+    try {
+      key = directory.getCanonicalPath();
+    } catch (IOException e) {
+      key = directory.getAbsolutePath();
+    }
+    synchronized (DIRECTORIES) {
+      Directory shared = DIRECTORIES.get(key);
+      if (shared == null || shared.maxSize != maxSize) {
+        shared = new Directory(new File(key), maxSize);
+        DIRECTORIES.put(key, shared);
+      }
+      return new FormattedSourceCache(shared);
+    }
+  }
+
+  private final Directory directory;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /** Returns a cache stored in {@code directory}, not shared with any other instance. */
+  FormattedSourceCache(File directory, long maxSize) {
+    this(new Directory(directory, maxSize));
+  }
+
+  private FormattedSourceCache(Directory directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Returns {@code formatter}, consulting this cache before each call to it. Output is only
+   * stored if the formatter was actually able to run.
+   */
+  SourceFormatter wrap(final SourceFormatter formatter) {
+    final String version = SourceFormatters.versionOf(formatter);
+    return new SourceFormatter() {
+      @Override
+      public String formatSource(String source) throws FormattingException {
+        String key = key(version, source);
+        Optional<String> cached = directory.get(key);
+        if (cached.isPresent()) {
+          hits.incrementAndGet();
+          return cached.get();
+        }
+        misses.incrementAndGet();
+        String formatted = formatter.formatSource(source);
+        if (SourceFormatters.isAvailable(formatter)) {
+          directory.put(key, formatted);
+        }
+        return formatted;
+      }
+    };
+  }
+
+  long hitCount() {
+    return hits.get();
+  }
+
+  long missCount() {
+    return misses.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("FormattedSourceCache{directory=%s, hits=%s, misses=%s}",
+        directory.directory, hits.get(), misses.get());
+  }
+
+  private static String key(String formatterVersion, String source) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(formatterVersion, UTF_8);
+    hasher.putByte((byte) 0);
+    hasher.putString(source, UTF_8);
+    return hasher.hash().toString();
+  }
+
+  /** The entries stored in a cache directory, and their approximate total size. */
+  private static final class Directory {
+    private final File directory;
+    private final long maxSize;
+    /** Approximate total size of the entries in the cache, or -1 if not yet measured. */
+    private long totalSize = -1;
+
+    Directory(File directory, long maxSize) {
+      checkArgument(maxSize > 0, "Cache size must be positive (got %s)", maxSize);
+      this.directory = directory;
+      this.maxSize = maxSize;
+    }
+
+    private File entry(String key) {
+      return new File(new File(directory, key.substring(0, 2)), key + ENTRY_SUFFIX);
+    }
+
+    private Optional<String> get(String key) {
+      File entry = entry(key);
+      try {
+        String formatted = Files.toString(entry, UTF_8);
+        // Record the access for LRU eviction. Failure just makes eviction less accurate.
+        entry.setLastModified(System.currentTimeMillis());
+        return Optional.of(formatted);
+      } catch (IOException e) {
+        // Missing, or evicted by another process while we were reading it.
+        return Optional.absent();
+      }
+    }
+
+    private void put(String key, String formatted) {
+      File entry = entry(key);
+      File shard = entry.getParentFile();
+      File temp = null;
+      try {
+        if (!shard.isDirectory() && !shard.mkdirs() && !shard.isDirectory()) {
+          return;
+        }
+        temp = File.createTempFile(TEMP_PREFIX, ".tmp", shard);
+        Files.write(formatted, temp, UTF_8);
+        // Entries are content-addressed, so if the rename fails because another worker has just
+        // written the same entry, nothing is lost.
+        if (temp.renameTo(entry)) {
+          temp = null;
+          recordWrite(entry.length());
+        }
+      } catch (IOException e) {
+        // The cache is an optimization only; carry on without it.
+      } finally {
+        if (temp != null) {
+          temp.delete();
+        }
+      }
+    }
+
+    private synchronized void recordWrite(long entrySize) {
+      if (totalSize < 0) {
+        totalSize = 0;
+        for (File entry : entries()) {
+          totalSize += entry.length();
+        }
+      } else {
+        totalSize += entrySize;
+      }
+      if (totalSize > maxSize) {
+        evict();
+      }
+    }
+
+    /** Deletes the least recently used entries until the cache is comfortably under its cap. */
+    private void evict() {
+      List<File> entries = entries();
+      final Map<File, Long> lastUsed = new HashMap<File, Long>();
+      totalSize = 0;
+      for (File entry : entries) {
+        lastUsed.put(entry, entry.lastModified());
+        totalSize += entry.length();
+      }
+      Collections.sort(entries, new Comparator<File>() {
+        @Override
+        public int compare(File a, File b) {
+          long difference = lastUsed.get(a) - lastUsed.get(b);
+          return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+        }
+      });
+      long target = (long) (maxSize * EVICTION_TARGET);
+      for (File entry : entries) {
+        if (totalSize <= target) {
+          break;
+        }
+        long size = entry.length();
+        if (entry.delete()) {
+          totalSize -= size;
+        }
+      }
+    }
+
+    /** Returns every entry in the cache, deleting any stale temporary files found on the way. */
+    private List<File> entries() {
+      List<File> entries = new ArrayList<File>();
+      long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+      File[] shards = directory.listFiles();
+      if (shards == null) {
+        return entries;
+      }
+      for (File shard : shards) {
+        File[] files = shard.listFiles();
+        if (files != null) {
+          for (File file : files) {
+            if (file.getName().endsWith(ENTRY_SUFFIX)) {
+              entries.add(file);
+            } else if (file.getName().startsWith(TEMP_PREFIX)
+                && file.lastModified() < staleBefore) {
+              file.delete();
+            }
+          }
+        }
+      }
+      return entries;
+    }
+  }
+}
@@ -15,22 +15,22 @@
  */
 package org.inferred.internal.source;
 
-import static com.google.common.collect.Iterables.addAll;
 import static com.google.common.collect.Iterables.getOnlyElement;
 import static org.inferred.internal.source.Shading.unshadedName;
 
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimaps;
 import com.google.common.collect.SetMultimap;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -57,16 +57,30 @@ class ImportManager extends SimpleTypeVisitor6<String, Void>
   private static final String JAVA_LANG_PACKAGE = "java.lang";
   private static final String PACKAGE_PREFIX = "package ";
 
+  /**
+   * The top-level types of the package being written, looked up by simple name on demand, so
+   * large packages need not be copied into every {@code ImportManager}.
+   */
+  interface PackageMembers {
+    /** Returns the type in the package called {@code simpleName}, or null if there is none. */
+    QualifiedName get(String simpleName);
+  }
+
+  private static final PackageMembers NO_PACKAGE_MEMBERS = new PackageMembers() {
+    @Override
+    public QualifiedName get(String simpleName) {
+      return null;
+    }
+  };
+
   /**
    * Builder of {@link ImportManager} instances.
    */
   public static class Builder {
 
-    /**
-     * Simple names of implicitly imported types, mapped to qualified name if that type is safe to
-     * use, null otherwise.
-     */
+    /** Implicitly imported types, by simple name. */
     private final SetMultimap<String, QualifiedName> implicitImports = LinkedHashMultimap.create();
+    private PackageMembers packageMembers = NO_PACKAGE_MEMBERS;
 
     /**
      * Adds a type which is implicitly imported into the current compilation unit.
@@ -76,33 +90,85 @@ class ImportManager extends SimpleTypeVisitor6<String, Void>
       return this;
     }
 
+    /**
+     * Sets the members of the current compilation unit's package, which are all implicitly
+     * imported. They will only be looked up for simple names the unit actually references.
+     */
+    Builder setPackageMembers(PackageMembers packageMembers) {
+      this.packageMembers = packageMembers;
+      return this;
+    }
+
     public ImportManager build() {
-      Set<String> nonConflictingImports = new LinkedHashSet<String>();
-      for (Set<QualifiedName> importGroup : Multimaps.asMap(implicitImports).values()) {
-        if (importGroup.size() == 1) {
-          QualifiedName implicitImport = getOnlyElement(importGroup);
-          if (implicitImport.isTopLevel()) {
-            nonConflictingImports.add(implicitImport.toString());
-          }
-        }
-      }
-      return new ImportManager(implicitImports.keySet(), nonConflictingImports);
+      return new ImportManager(implicitImports, packageMembers);
     }
   }
 
   private final Set<String> visibleSimpleNames = new HashSet<String>();
-  private final ImmutableSet<String> implicitImports;
+  private final ImmutableSetMultimap<String, QualifiedName> implicitImports;
+  private final PackageMembers packageMembers;
   private final Set<String> explicitImports = new TreeSet<String>();
 
-  private ImportManager(Iterable<String> visibleSimpleNames, Iterable<String> implicitImports) {
-    addAll(this.visibleSimpleNames, visibleSimpleNames);
-    this.implicitImports = ImmutableSet.copyOf(implicitImports);
+  /*
+   * Memoized shortened text. The first reference to a type decides its import; every later
+   * reference is a single lookup. The only decision that can change afterwards is leaving a
+   * java.lang type unqualified, which stops being safe if another type with the same simple name
+   * is imported, so such names are tracked and the memo is cleared if that happens.
+   */
+  private final Map<QualifiedName, String> shortenedNames = new HashMap<QualifiedName, String>();
+  private final Map<Class<?>, String> shortenedClasses = new HashMap<Class<?>, String>();
+  private final Map<TypeMirror, String> shortenedMirrors = new HashMap<TypeMirror, String>();
+  /** Text of {@link SourceStringBuilder.CacheableExcerpt}s, which is only shortened types. */
+  private final Map<Excerpt, String> renderedExcerpts = new HashMap<Excerpt, String>();
+  private final Set<String> unqualifiedJavaLangNames = new HashSet<String>();
+  private int memoGeneration = 0;
+  private int memoHits = 0;
+  private int memoMisses = 0;
+
+  private ImportManager(
+      SetMultimap<String, QualifiedName> implicitImports, PackageMembers packageMembers) {
+    this.implicitImports = ImmutableSetMultimap.copyOf(implicitImports);
+    this.packageMembers = packageMembers;
   }
 
   public Set<String> getClassImports() {
     return Collections.unmodifiableSet(explicitImports);
   }
 
+  /** Returns the number of shortening requests answered from the memo. */
+  int getMemoHitCount() {
+    return memoHits;
+  }
+
+  /** Returns the number of shortening requests that had to be computed. */
+  int getMemoMissCount() {
+    return memoMisses;
+  }
+
+  /** Returns the text {@code excerpt} rendered to last time, or null if not known. */
+  String getRenderedExcerpt(Excerpt excerpt) {
+    String rendered = renderedExcerpts.get(excerpt);
+    if (rendered != null) {
+      memoHits++;
+    }
+    return rendered;
+  }
+
+  /** Returns a counter that changes whenever previously shortened text becomes stale. */
+  int getMemoGeneration() {
+    return memoGeneration;
+  }
+
+  /**
+   * Records the text {@code excerpt} rendered to, if nothing has been invalidated since
+   * {@link #getMemoGeneration()} returned {@code generation}.
+   */
+  void putRenderedExcerpt(Excerpt excerpt, String rendered, int generation) {
+    if (generation == memoGeneration) {
+      renderedExcerpts.put(excerpt, rendered);
+    }
+  }
+
   @Override
   public String shorten(TypeMirror mirror) {
     return mirror.accept(this, null);
@@ -110,8 +176,34 @@ class ImportManager extends SimpleTypeVisitor6<String, Void>
 
   @Override
   public String shorten(QualifiedName type) {
+    String shortened = shortenedNames.get(type);
+    if (shortened != null) {
+      memoHits++;
+      return shortened;
+    }
+    memoMisses++;
+    int generation = memoGeneration;
     String prefix = getPrefixForTopLevelClass(type.getPackage(), type.getSimpleNames().get(0));
-    return prefix + Joiner.on('.').join(type.getSimpleNames());
+    shortened = prefix + Joiner.on('.').join(type.getSimpleNames());
+    if (generation == memoGeneration) {
+      shortenedNames.put(type, shortened);
+    }
+    return shortened;
+  }
+
+  @Override
+  public String shorten(Class<?> cls) {
+    String shortened = shortenedClasses.get(cls);
+    if (shortened != null) {
+      memoHits++;
+      return shortened;
+    }
+    int generation = memoGeneration;
+    shortened = shorten(QualifiedName.of(cls));
+    if (generation == memoGeneration) {
+      shortenedClasses.put(cls, shortened);
+    }
+    return shortened;
   }
 
   @Override
@@ -121,6 +213,21 @@ class ImportManager extends SimpleTypeVisitor6<String, Void>
 
   @Override
   public String visitDeclared(DeclaredType mirror, Void p) {
+    String shortened = shortenedMirrors.get(mirror);
+    if (shortened != null) {
+      memoHits++;
+      return shortened;
+    }
+    memoMisses++;
+    int generation = memoGeneration;
+    shortened = shortenDeclared(mirror);
+    if (generation == memoGeneration) {
+      shortenedMirrors.put(mirror, shortened);
+    }
+    return shortened;
+  }
+
+  private String shortenDeclared(DeclaredType mirror) {
     Name name = mirror.asElement().getSimpleName();
     final String prefix;
     Element enclosingElement = mirror.asElement().getEnclosingElement();
@@ -150,19 +257,56 @@ class ImportManager extends SimpleTypeVisitor6<String, Void>
     }
     pkg = unshadedName(pkg);
     String qualifiedName = pkg + "." + name;
-    if (implicitImports.contains(qualifiedName) || explicitImports.contains(qualifiedName)) {
+    Set<QualifiedName> implicitImportGroup = implicitImportsNamed(name.toString());
+    if (isUnambiguous(implicitImportGroup, qualifiedName)
+        || explicitImports.contains(qualifiedName)) {
       return "";
-    } else if (visibleSimpleNames.contains(name.toString())) {
+    } else if (!implicitImportGroup.isEmpty() || visibleSimpleNames.contains(name.toString())) {
       return pkg + ".";
     } else if (pkg.equals(JAVA_LANG_PACKAGE)) {
+      unqualifiedJavaLangNames.add(name.toString());
       return "";
     } else {
       visibleSimpleNames.add(name.toString());
       explicitImports.add(qualifiedName);
+      if (unqualifiedJavaLangNames.remove(name.toString())) {
+        clearMemo();
+      }
       return "";
     }
   }
 
+  /** Returns all implicitly imported types called {@code simpleName}. */
+  private Set<QualifiedName> implicitImportsNamed(String simpleName) {
+    Set<QualifiedName> group = implicitImports.get(simpleName);
+    QualifiedName packageMember = packageMembers.get(simpleName);
+    if (packageMember == null || group.contains(packageMember)) {
+      return group;
+    }
+    return ImmutableSet.<QualifiedName>builder().addAll(group).add(packageMember).build();
+  }
+
+  /**
+   * Returns whether {@code qualifiedName} is the only type in {@code implicitImportGroup}, and can
+   * therefore be referenced by its simple name.
+   */
+  private static boolean isUnambiguous(
+      Set<QualifiedName> implicitImportGroup, String qualifiedName) {
+    if (implicitImportGroup.size() != 1) {
+      return false;
+    }
+    QualifiedName implicitImport = getOnlyElement(implicitImportGroup);
+    return implicitImport.isTopLevel() && implicitImport.toString().equals(qualifiedName);
+  }
+
+  private void clearMemo() {
+    shortenedNames.clear();
+    shortenedClasses.clear();
+    shortenedMirrors.clear();
+    renderedExcerpts.clear();
+    memoGeneration++;
+  }
+
   @Override
   protected String defaultAction(TypeMirror mirror, Void p) {
     return mirror.toString();
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager.Location;
+import javax.tools.JavaFileObject;
+
+/**
+ * A {@link Filer} that enforces the contract of a Gradle isolating annotation processor: every
+ * generated file must have exactly one originating element, which must lie within the type
+ * currently being processed.
+ *
+ * <p>Violations throw {@link IllegalStateException} immediately, rather than leaving Gradle to
+ * silently miss a dependency and produce a stale incremental build.
+ */
+class IsolatingFiler implements Filer {
+
+  private final Filer delegate;
+  /** The type currently being processed, or null if unknown. */
+  private TypeElement currentType;
+
+  IsolatingFiler(Filer delegate) {
+    this.delegate = checkNotNull(delegate);
+  }
+
+  /**
+   * Sets the type currently being processed, or null if unknown. Generated files must originate
+   * from within this type until it is changed.
+   */
+  void setCurrentType(TypeElement currentType) {
+    this.currentType = currentType;
+  }
+
+  @Override
+  public JavaFileObject createSourceFile(CharSequence name, Element... originatingElements)
+      throws IOException {
+    checkOriginatingElements(name, originatingElements);
+    return delegate.createSourceFile(name, originatingElements);
+  }
+
+  @Override
+  public JavaFileObject createClassFile(CharSequence name, Element... originatingElements)
+      throws IOException {
+    checkOriginatingElements(name, originatingElements);
+    return delegate.createClassFile(name, originatingElements);
+  }
+
+  @Override
+  public FileObject createResource(
+      Location location,
+      CharSequence pkg,
+      CharSequence relativeName,
+      Element... originatingElements) throws IOException {
+    checkOriginatingElements(pkg + "/" + relativeName, originatingElements);
+    return delegate.createResource(location, pkg, relativeName, originatingElements);
+  }
+
+  @Override
+  public FileObject getResource(Location location, CharSequence pkg, CharSequence relativeName)
+      throws IOException {
+    return delegate.getResource(location, pkg, relativeName);
+  }
+
+  private void checkOriginatingElements(CharSequence name, Element[] originatingElements) {
+    if (originatingElements == null || originatingElements.length != 1
+        || originatingElements[0] == null) {
+      throw new IllegalStateException(String.format(
+          "Isolating processors must give exactly one originating element for %s (got %s)",
+          name,
+          (originatingElements == null) ? 0 : originatingElements.length));
+    }
+    if (currentType != null && !isWithin(originatingElements[0], currentType)) {
+      throw new IllegalStateException(String.format(
+          "Isolating processors may only generate %s from %s, the type being processed (got %s)",
+          name,
+          currentType,
+          originatingElements[0]));
+    }
+  }
+
+  private static boolean isWithin(Element element, TypeElement type) {
+    for (Element e = element; e != null; e = e.getEnclosingElement()) {
+      if (e.equals(type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
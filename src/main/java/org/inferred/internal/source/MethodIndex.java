@@ -0,0 +1,278 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static javax.lang.model.util.ElementFilter.methodsIn;
+import static org.inferred.internal.source.ModelUtils.maybeAsTypeElement;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+
+/**
+ * Index of the methods declared and inherited by a type, by name and arity, built the first time
+ * the type is queried in a round.
+ *
+ * <p>Indices are only kept between {@link #startRound()} and {@link #endRound()} on the thread
+ * processing the round, as types may gain supertypes generated in the next one, so no index
+ * outlives its round or pins the compiler's model. Outside a round, each query indexes the type
+ * afresh. Package-private methods are treated as inherited even across packages.
+ */
+final class MethodIndex {
+
+  /** The indices for the round being processed on this thread, if any, by {@link Types}. */
+  private static final ThreadLocal<Map<Types, Map<TypeElement, MethodIndex>>> ACTIVE =
+      new ThreadLocal<Map<Types, Map<TypeElement, MethodIndex>>>();
+
+  /** Returns the index of {@code type}. */
+  static MethodIndex of(TypeElement type, Types types) {
+    Map<Types, Map<TypeElement, MethodIndex>> round = ACTIVE.get();
+    if (round == null) {
+      return new MethodIndex(type);
+    }
+    Map<TypeElement, MethodIndex> indices = round.get(types);
+    if (indices == null) {
+      indices = new HashMap<TypeElement, MethodIndex>();
+      round.put(types, indices);
+    }
+    MethodIndex index = indices.get(type);
+    if (index == null) {
+      index = new MethodIndex(type);
+      indices.put(type, index);
+    }
+    return index;
+  }
+
+  /** Starts keeping the indices of types queried on this thread. */
+  static void startRound() {
+    ACTIVE.set(new HashMap<Types, Map<TypeElement, MethodIndex>>());
+  }
+
+  /** Discards the indices kept for this thread's round. */
+  static void endRound() {
+    ACTIVE.remove();
+  }
+
+  private final TypeElement type;
+  private final ImmutableListMultimap<String, ExecutableElement> declaredMethods;
+  private ImmutableList<TypeElement> supertypes;
+  private ImmutableListMultimap<String, ExecutableElement> inheritedMethods;
+  private ImmutableList<ExecutableElement> abstractMethods;
+
+  private MethodIndex(TypeElement type) {
+    this.type = type;
+    ImmutableListMultimap.Builder<String, ExecutableElement> declaredMethods =
+        ImmutableListMultimap.builder();
+    for (ExecutableElement method : methodsIn(type.getEnclosedElements())) {
+      declaredMethods.put(key(method), method);
+    }
+    this.declaredMethods = declaredMethods.build();
+  }
+
+  /** Returns whether the type declares method {@code methodName(params)}. */
+  boolean declares(Types types, String methodName, TypeMirror... params) {
+    for (ExecutableElement method : declaredMethods.get(key(methodName, params.length))) {
+      if (parametersMatch(types, method, params)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether the type inherits a non-private, non-static method {@code methodName(params)}
+   * from a supertype. Parameter types are compared as members of the type, so a method of a
+   * generic supertype matches with its type arguments substituted.
+   */
+  boolean inherits(Types types, String methodName, TypeMirror... params) {
+    for (ExecutableElement method : inheritedMethods(types).get(key(methodName, params.length))) {
+      ExecutableType memberType = asMemberOf(types, method);
+      boolean matches = true;
+      for (int i = 0; i < params.length && matches; ++i) {
+        matches = types.isSameType(params[i], memberType.getParameterTypes().get(i));
+      }
+      if (matches) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the abstract methods the type declares or inherits without an implementation.
+   *
+   * <p>The nearest declaration in the superclass chain decides whether a method is abstract; an
+   * interface method is abstract unless some class or default method implements it. As methods
+   * of {@link Object} are inherited by interfaces, they are never considered abstract.
+   */
+  ImmutableList<ExecutableElement> abstractMethods(Types types) {
+    if (abstractMethods == null) {
+      Map<String, ExecutableElement> firstBySignature =
+          new LinkedHashMap<String, ExecutableElement>();
+      Map<String, ExecutableElement> classMethods = new HashMap<String, ExecutableElement>();
+      Set<String> implementedByInterface = new HashSet<String>();
+      for (ExecutableElement method : methodsIn(type.getEnclosedElements())) {
+        if (!method.getModifiers().contains(Modifier.STATIC)) {
+          addMethod(types, method, firstBySignature, classMethods, implementedByInterface);
+        }
+      }
+      for (ExecutableElement method : inheritedMethods(types).values()) {
+        addMethod(types, method, firstBySignature, classMethods, implementedByInterface);
+      }
+      ImmutableList.Builder<ExecutableElement> result = ImmutableList.builder();
+      for (Map.Entry<String, ExecutableElement> entry : firstBySignature.entrySet()) {
+        ExecutableElement classMethod = classMethods.get(entry.getKey());
+        boolean isAbstract = (classMethod != null)
+            ? isAbstract(classMethod)
+            : !implementedByInterface.contains(entry.getKey());
+        if (isAbstract) {
+          result.add((classMethod != null) ? classMethod : entry.getValue());
+        }
+      }
+      abstractMethods = result.build();
+    }
+    return abstractMethods;
+  }
+
+  private void addMethod(
+      Types types,
+      ExecutableElement method,
+      Map<String, ExecutableElement> firstBySignature,
+      Map<String, ExecutableElement> classMethods,
+      Set<String> implementedByInterface) {
+    String signature = signature(types, method);
+    if (!firstBySignature.containsKey(signature)) {
+      firstBySignature.put(signature, method);
+    }
+    if (!method.getEnclosingElement().getKind().isInterface()) {
+      if (!classMethods.containsKey(signature)) {
+        classMethods.put(signature, method);
+      }
+    } else if (!isAbstract(method)) {
+      implementedByInterface.add(signature);
+    }
+  }
+
+  /**
+   * Returns every proper supertype of the type: its superclasses, nearest first, then its
+   * interfaces, nearest first. Superclasses must all come first, or {@link Object}, a supertype
+   * of every interface, could be taken as nearer than a superclass redeclaring its methods.
+   */
+  private ImmutableList<TypeElement> supertypes(Types types) {
+    if (supertypes == null) {
+      Set<TypeElement> seen = new LinkedHashSet<TypeElement>();
+      Queue<TypeElement> toVisit = new ArrayDeque<TypeElement>();
+      seen.add(type);
+      toVisit.add(type);
+      Optional<TypeElement> superclass = maybeAsTypeElement(type.getSuperclass());
+      while (superclass.isPresent() && seen.add(superclass.get())) {
+        toVisit.add(superclass.get());
+        superclass = maybeAsTypeElement(superclass.get().getSuperclass());
+      }
+      while (!toVisit.isEmpty()) {
+        for (TypeMirror supertype : toVisit.remove().getInterfaces()) {
+          Optional<TypeElement> element = maybeAsTypeElement(supertype);
+          if (element.isPresent() && seen.add(element.get())) {
+            toVisit.add(element.get());
+          }
+        }
+      }
+      if (type.getKind().isInterface()) {
+        // An interface's only class supertype is Object, whose public methods it declares.
+        for (TypeMirror supertype : types.directSupertypes(type.asType())) {
+          Optional<TypeElement> element = maybeAsTypeElement(supertype);
+          if (element.isPresent() && !element.get().getKind().isInterface()) {
+            seen.add(element.get());
+          }
+        }
+      }
+      seen.remove(type);
+      supertypes = ImmutableList.copyOf(seen);
+    }
+    return supertypes;
+  }
+
+  private ImmutableListMultimap<String, ExecutableElement> inheritedMethods(Types types) {
+    if (inheritedMethods == null) {
+      ImmutableListMultimap.Builder<String, ExecutableElement> methods =
+          ImmutableListMultimap.builder();
+      for (TypeElement supertype : supertypes(types)) {
+        for (ExecutableElement method : methodsIn(supertype.getEnclosedElements())) {
+          Set<Modifier> modifiers = method.getModifiers();
+          if (!modifiers.contains(Modifier.PRIVATE) && !modifiers.contains(Modifier.STATIC)) {
+            methods.put(key(method), method);
+          }
+        }
+      }
+      inheritedMethods = methods.build();
+    }
+    return inheritedMethods;
+  }
+
+  private ExecutableType asMemberOf(Types types, ExecutableElement method) {
+    return (ExecutableType) types.asMemberOf((DeclaredType) type.asType(), method);
+  }
+
+  /** Returns the name and erased parameter types of {@code method} as a member of the type. */
+  private String signature(Types types, ExecutableElement method) {
+    StringBuilder signature = new StringBuilder(method.getSimpleName()).append('(');
+    String separator = "";
+    for (TypeMirror parameterType : asMemberOf(types, method).getParameterTypes()) {
+      signature.append(separator).append(types.erasure(parameterType));
+      separator = ",";
+    }
+    return signature.append(')').toString();
+  }
+
+  private static boolean parametersMatch(
+      Types types, ExecutableElement method, TypeMirror... params) {
+    for (int i = 0; i < params.length; ++i) {
+      if (!types.isSameType(params[i], method.getParameters().get(i).asType())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isAbstract(ExecutableElement method) {
+    return method.getModifiers().contains(Modifier.ABSTRACT);
+  }
+
+  private static String key(ExecutableElement method) {
+    return key(method.getSimpleName().toString(), method.getParameters().size());
+  }
+
+  private static String key(String methodName, int arity) {
+    return methodName + "/" + arity;
+  }
+}
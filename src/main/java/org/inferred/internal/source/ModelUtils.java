@@ -15,9 +15,10 @@
  */
 package org.inferred.internal.source;
 
-import static javax.lang.model.util.ElementFilter.methodsIn;
-
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 import java.lang.annotation.Annotation;
 import java.util.Map.Entry;
@@ -45,7 +46,7 @@ public class ModelUtils {
    */
   public static Optional<AnnotationMirror> findAnnotationMirror(
       Element element, Class<? extends Annotation> annotationClass) {
-    return findAnnotationMirror(element, Shading.unshadedName(annotationClass.getName()));
+    return findAnnotationMirror(element, AnnotationMirrorIndex.nameOf(annotationClass));
   }
 
   /**
@@ -60,17 +61,14 @@ public class ModelUtils {
   /**
    * Returns an {@link AnnotationMirror} for the annotation of type {@code annotationClassName} on
    * {@code element}, or {@link Optional#absent()} if no such annotation exists.
+   *
+   * <p>Within a round of a {@link SimpleTypeProcessor}, the annotations on each element are
+   * indexed the first time it is queried, so repeated queries on an element are a single map
+   * lookup.
    */
   public static Optional<AnnotationMirror> findAnnotationMirror(
       Element element, String annotationClassName) {
-    for (AnnotationMirror annotationMirror : element.getAnnotationMirrors()) {
-      TypeElement annotationTypeElement =
-          (TypeElement) (annotationMirror.getAnnotationType().asElement());
-      if (annotationTypeElement.getQualifiedName().contentEquals(annotationClassName)) {
-        return Optional.of(annotationMirror);
-      }
-    }
-    return Optional.absent();
+    return Optional.fromNullable(AnnotationMirrorIndex.find(element, annotationClassName));
   }
 
   public static Optional<AnnotationValue> findProperty(
@@ -84,6 +82,25 @@ public class ModelUtils {
     return Optional.absent();
   }
 
+  /**
+   * Returns the values of the properties of {@code annotation} named in {@code propertyNames},
+   * keyed by name, in a single pass over its element values. Properties not explicitly set are
+   * absent from the result.
+   */
+  public static ImmutableMap<String, AnnotationValue> findProperties(
+      AnnotationMirror annotation, String... propertyNames) {
+    ImmutableSet<String> names = ImmutableSet.copyOf(propertyNames);
+    ImmutableMap.Builder<String, AnnotationValue> properties = ImmutableMap.builder();
+    for (Entry<? extends ExecutableElement, ? extends AnnotationValue> element
+        : annotation.getElementValues().entrySet()) {
+      String name = element.getKey().getSimpleName().toString();
+      if (names.contains(name)) {
+        properties.put(name, element.getValue());
+      }
+    }
+    return properties.build();
+  }
+
   /** Returns {@code element} as a {@link TypeElement}, if it is one. */
   public static Optional<TypeElement> maybeType(Element element) {
     return TYPE_ELEMENT_VISITOR.visit(element);
@@ -122,31 +139,32 @@ public class ModelUtils {
     }
   }
 
-  /** Returns whether {@code type} overrides method {@code methodName(params)}. */
+  /**
+   * Returns whether {@code type} overrides method {@code methodName(params)}.
+   *
+   * <p>The methods of each type are indexed by name and arity the first time it is queried, so
+   * only methods with the right name and arity are compared.
+   */
   public static boolean overrides(
       TypeElement type, Types types, String methodName, TypeMirror... params) {
-    for (ExecutableElement method : methodsIn(type.getEnclosedElements())) {
-      if (signatureMatches(method, types, methodName, params)) {
-        return true;
-      }
-    }
-    return false;
+    return MethodIndex.of(type, types).declares(types, methodName, params);
   }
 
-  private static boolean signatureMatches(
-      ExecutableElement method, Types types, String name, TypeMirror... params) {
-    if (!method.getSimpleName().contentEquals(name)) {
-      return false;
-    }
-    if (method.getParameters().size() != params.length) {
-      return false;
-    }
-    for (int i = 0; i < params.length; ++i) {
-      if (!types.isSameType(params[i], method.getParameters().get(i).asType())) {
-        return false;
-      }
-    }
-    return true;
+  /**
+   * Returns whether {@code type} inherits a non-private, non-static method
+   * {@code methodName(params)} from any of its supertypes.
+   */
+  public static boolean isInherited(
+      TypeElement type, Types types, String methodName, TypeMirror... params) {
+    return MethodIndex.of(type, types).inherits(types, methodName, params);
+  }
+
+  /**
+   * Returns the abstract methods {@code type} declares or inherits without an implementation,
+   * e.g. the methods a concrete subclass must implement.
+   */
+  public static ImmutableList<ExecutableElement> abstractMethods(TypeElement type, Types types) {
+    return MethodIndex.of(type, types).abstractMethods(types);
   }
 
   private static final SimpleElementVisitor6<Optional<TypeElement>, ?> TYPE_ELEMENT_VISITOR =
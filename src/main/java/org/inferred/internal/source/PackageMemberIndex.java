@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+
+/**
+ * Index of the top-level types in each package, by simple name, shared by every compilation unit
+ * generated in a processing round.
+ *
+ * <p>A package is only scanned the first time a unit in it needs to check a simple name, and types
+ * generated during the round are added as their units are created, so generating many types into
+ * one package costs one scan rather than one per unit. Each unit sees a snapshot of its package
+ * taken when the unit is created, so types generated afterwards are not visible to it.
+ *
+ * <p>An index only exists between {@link #startRound()} and {@link #endRound()} on the thread
+ * processing the round, as the next round's packages hold the types generated in this one. Units
+ * created outside a round each scan their package themselves.
+ */
+final class PackageMemberIndex {
+
+  /** The index for the round being processed on this thread, if any. */
+  private static final ThreadLocal<PackageMemberIndex> ACTIVE =
+      new ThreadLocal<PackageMemberIndex>();
+
+  /** Starts sharing package scans between the units created on this thread. */
+  static void startRound() {
+    ACTIVE.set(new PackageMemberIndex());
+  }
+
+  /** Discards the index for this thread's round. */
+  static void endRound() {
+    ACTIVE.remove();
+  }
+
+  /**
+   * Records that {@code type} is being generated, and returns the members of its package as of
+   * now, including it if it is top-level. Types generated later are not included. The package is
+   * not scanned, using {@code elements}, until the snapshot is first queried.
+   */
+  static ImportManager.PackageMembers addGeneratedType(Elements elements, QualifiedName type) {
+    PackageMemberIndex index = ACTIVE.get();
+    if (index == null) {
+      index = new PackageMemberIndex();
+    }
+    return index.add(elements, type);
+  }
+
+  private final Map<String, Members> packages = new HashMap<String, Members>();
+
+  private PackageMemberIndex() {}
+
+  private ImportManager.PackageMembers add(final Elements elements, QualifiedName type) {
+    String pkg = type.getPackage();
+    Members members = packages.get(pkg);
+    if (members == null) {
+      members = new Members(pkg);
+      packages.put(pkg, members);
+    }
+    if (type.isTopLevel()) {
+      members.add(type);
+    }
+    final Members snapshot = members;
+    final int generatedCount = members.generated.size();
+    return new ImportManager.PackageMembers() {
+      @Override
+      public QualifiedName get(String simpleName) {
+        return snapshot.get(elements, simpleName, generatedCount);
+      }
+    };
+  }
+
+  /**
+   * The members of a package in one round: those the compiler knows about, scanned lazily, and
+   * those generated this round, in order.
+   */
+  private static class Members {
+    private final String pkg;
+    private final List<QualifiedName> generated = new ArrayList<QualifiedName>();
+    /** Index into {@link #generated} of each generated type, by simple name. */
+    private final Map<String, Integer> generatedIndices = new HashMap<String, Integer>();
+    private Map<String, QualifiedName> scanned;
+
+    Members(String pkg) {
+      this.pkg = pkg;
+    }
+
+    /**
+     * Returns the member called {@code simpleName}, ignoring any generated after the first
+     * {@code generatedCount}.
+     */
+    QualifiedName get(Elements elements, String simpleName, int generatedCount) {
+      if (scanned == null) {
+        scanned = scan(elements);
+      }
+      QualifiedName member = scanned.get(simpleName);
+      if (member != null) {
+        return member;
+      }
+      Integer index = generatedIndices.get(simpleName);
+      return (index != null && index < generatedCount) ? generated.get(index) : null;
+    }
+
+    void add(QualifiedName type) {
+      if (!generatedIndices.containsKey(type.getSimpleName())) {
+        generatedIndices.put(type.getSimpleName(), generated.size());
+        generated.add(type);
+      }
+    }
+
+    private Map<String, QualifiedName> scan(Elements elements) {
+      Map<String, QualifiedName> result = new HashMap<String, QualifiedName>();
+      PackageElement pkgElement = elements.getPackageElement(pkg);
+      if (pkgElement != null) {
+        for (TypeElement type : ElementFilter.typesIn(pkgElement.getEnclosedElements())) {
+          result.put(type.getSimpleName().toString(), QualifiedName.of(type));
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -39,7 +39,7 @@ import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.SimpleElementVisitor6;
 import javax.lang.model.util.SimpleTypeVisitor6;
 
-public class ParameterizedType extends Excerpt {
+public class ParameterizedType extends Excerpt implements SourceStringBuilder.CacheableExcerpt {
 
   public static ParameterizedType from(TypeElement typeElement) {
     return new ParameterisedTypeForElementVisitor().visitType(typeElement, null);
@@ -56,6 +56,17 @@ public class ParameterizedType extends Excerpt {
   private final QualifiedName qualifiedName;
   private final List<?> typeParameters;
 
+  /*
+   * Derived forms, computed on first use. Each is immutable, so a race at worst computes one
+   * twice.
+   */
+  private ParameterizedType withWildcards;
+  private Excerpt constructor;
+  private Excerpt declaration;
+  private Excerpt typeParametersExcerpt;
+  private Excerpt declarationParameters;
+  private String string;
+
   ParameterizedType(QualifiedName qualifiedName, List<?> typeParameters) {
     this.qualifiedName = checkNotNull(qualifiedName);
     this.typeParameters = checkNotNull(typeParameters);
@@ -96,7 +107,10 @@ public class ParameterizedType extends Excerpt {
     if (typeParameters.isEmpty()) {
       return this;
     }
-    return new ParameterizedType(qualifiedName, nCopies(typeParameters.size(), "?"));
+    if (withWildcards == null) {
+      withWildcards = new ParameterizedType(qualifiedName, nCopies(typeParameters.size(), "?"));
+    }
+    return withWildcards;
   }
 
   /**
@@ -107,17 +121,23 @@ public class ParameterizedType extends Excerpt {
    * in full.
    */
   public Excerpt constructor() {
-    return Excerpts.add(
-        "new %s%s",
-        qualifiedName,
-        isParameterized() ? diamondOperator(Excerpts.join(", ", typeParameters)) : "");
+    if (constructor == null) {
+      constructor = Excerpts.add(
+          "new %s%s",
+          qualifiedName,
+          isParameterized() ? diamondOperator(Excerpts.join(", ", typeParameters)) : "");
+    }
+    return constructor;
   }
 
   /**
    * Returns a source excerpt suitable for declaring this type, i.e. {@code SimpleName<...>}
    */
   public Excerpt declaration() {
-    return Excerpts.add("%s%s", qualifiedName.getSimpleName(), declarationParameters());
+    if (declaration == null) {
+      declaration = Excerpts.add("%s%s", qualifiedName.getSimpleName(), declarationParameters());
+    }
+    return declaration;
   }
 
   /**
@@ -126,9 +146,11 @@ public class ParameterizedType extends Excerpt {
   public Excerpt typeParameters() {
     if (typeParameters.isEmpty()) {
       return Excerpts.empty();
-    } else {
-      return Excerpts.add("<%s>", Excerpts.join(", ", typeParameters));
     }
+    if (typeParametersExcerpt == null) {
+      typeParametersExcerpt = new TypeParameterList(typeParameters);
+    }
+    return typeParametersExcerpt;
   }
 
   /**
@@ -136,7 +158,10 @@ public class ParameterizedType extends Excerpt {
    * brackets.
    */
   public Excerpt declarationParameters() {
-    return new DeclarationParameters(typeParameters);
+    if (declarationParameters == null) {
+      declarationParameters = new DeclarationParameters(typeParameters);
+    }
+    return declarationParameters;
   }
 
   /**
@@ -155,10 +180,13 @@ public class ParameterizedType extends Excerpt {
 
   @Override
   public String toString() {
-    // Only used when debugging, so an empty feature set is fine.
-    return new SourceStringBuilder(new TypeShortener.NeverShorten(), new StaticFeatureSet())
-        .add(this)
-        .toString();
+    if (string == null) {
+      // Only used when debugging, so an empty feature set is fine.
+      string = new SourceStringBuilder(new TypeShortener.NeverShorten(), new StaticFeatureSet())
+          .add(this)
+          .toString();
+    }
+    return string;
   }
 
   @Override
@@ -167,6 +195,49 @@ public class ParameterizedType extends Excerpt {
     fields.add("typeParameters", typeParameters);
   }
 
+  @Override
+  protected boolean hasSameFields(ValueType other) {
+    if (getClass() != ParameterizedType.class) {
+      return super.hasSameFields(other);  // A subclass may add fields
+    }
+    ParameterizedType otherType = (ParameterizedType) other;
+    return qualifiedName.equals(otherType.qualifiedName)
+        && typeParameters.equals(otherType.typeParameters);
+  }
+
+  @Override
+  protected boolean isImmutable() {
+    return true;
+  }
+
+  /** The type parameters of a type, in angle brackets. */
+  private static final class TypeParameterList extends Excerpt
+      implements SourceStringBuilder.CacheableExcerpt {
+
+    private final List<?> typeParameters;
+    private final Object joined;
+
+    TypeParameterList(List<?> typeParameters) {
+      this.typeParameters = typeParameters;
+      this.joined = Excerpts.join(", ", typeParameters);
+    }
+
+    @Override
+    public void addTo(SourceBuilder source) {
+      source.add("<%s>", joined);
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("typeParameters", typeParameters);
+    }
+
+    @Override
+    protected boolean isImmutable() {
+      return true;
+    }
+  }
+
   private final class DeclarationParameters extends Excerpt {
 
     private final List<?> typeParameters;
@@ -10,14 +10,13 @@ import com.google.common.escape.Escapers;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Pattern;
 
 /**
  * Code snippets that call or emulate Guava's {@link Preconditions} methods.
  */
 public class PreconditionExcerpts {
 
-  private static final class GuavaCheckExcerpt extends Excerpt {
+  private static final class GuavaCheckExcerpt extends CachedExcerpt {
     private final Object[] args;
     private final Object condition;
     private final String message;
@@ -34,7 +33,7 @@ public class PreconditionExcerpts {
     }
 
     @Override
-    public void addTo(SourceBuilder code) {
+    protected void render(SourceBuilder code) {
       if (code.feature(GUAVA).isAvailable()) {
         code.add("%s.%s(%s, \"%s\"",
             Preconditions.class,
@@ -55,7 +54,7 @@ public class PreconditionExcerpts {
             .toString()
             .replace("\"\" + ", "")
             .replace(" + \"\"", "");
-        code.addLine("if (%s) {", negate(code, condition))
+        code.addLine("if (%s) {", Condition.not(condition))
             .addLine("  throw new %s(%s);", exceptionType, messageConcatenated)
             .addLine("}");
       }
@@ -71,7 +70,7 @@ public class PreconditionExcerpts {
     }
   }
 
-  private static final class CheckNotNullPreambleExcerpt extends Excerpt {
+  private static final class CheckNotNullPreambleExcerpt extends CachedExcerpt {
     private final Object reference;
 
     private CheckNotNullPreambleExcerpt(Object reference) {
@@ -79,7 +78,7 @@ public class PreconditionExcerpts {
     }
 
     @Override
-    public void addTo(SourceBuilder code) {
+    protected void render(SourceBuilder code) {
       if (code.feature(GUAVA).isAvailable()) {
         // No preamble needed
       } else if (code.feature(SOURCE_LEVEL).javaUtilObjects().isPresent()) {
@@ -97,7 +96,7 @@ public class PreconditionExcerpts {
     }
   }
 
-  private static final class CheckNotNullInlineExcerpt extends Excerpt {
+  private static final class CheckNotNullInlineExcerpt extends CachedExcerpt {
     private final Object reference;
 
     private CheckNotNullInlineExcerpt(Object reference) {
@@ -105,7 +104,7 @@ public class PreconditionExcerpts {
     }
 
     @Override
-    public void addTo(SourceBuilder code) {
+    protected void render(SourceBuilder code) {
       if (code.feature(GUAVA).isAvailable()) {
         code.add("%s.checkNotNull(%s)", Preconditions.class, reference);
       } else if (code.feature(SOURCE_LEVEL).javaUtilObjects().isPresent()) {
@@ -122,7 +121,7 @@ public class PreconditionExcerpts {
     }
   }
 
-  private static final class CheckNotNullExcerpt extends Excerpt {
+  private static final class CheckNotNullExcerpt extends CachedExcerpt {
     private final Object reference;
 
     private CheckNotNullExcerpt(Object reference) {
@@ -130,7 +129,7 @@ public class PreconditionExcerpts {
     }
 
     @Override
-    public void addTo(SourceBuilder code) {
+    protected void render(SourceBuilder code) {
       if (code.feature(GUAVA).isAvailable()) {
         code.addLine("%s.checkNotNull(%s);", Preconditions.class, reference);
       } else if (code.feature(SOURCE_LEVEL).javaUtilObjects().isPresent()) {
@@ -154,15 +153,6 @@ public class PreconditionExcerpts {
       .addEscape('\\', "\\\\")
       .addEscape('\n', "\\n")
       .build();
-  /**
-   * Matches all operators with a lower precedence than unary negation (!).
-   *
-   * <p>False positives are acceptable, as the only downside is putting unnecessary brackets around
-   * the condition when Guava is not available, so a simple check for offending characters is fine,
-   * even though they might actually be in a string.
-   */
-  private static final Pattern ANY_OPERATOR = Pattern.compile("[+=<>!&^|?:]|\\binstanceof\\b");
-
   /**
    * Returns an excerpt of the preamble required to emulate an inline call to Guava's
    * {@link Preconditions#checkNotNull(Object)} method.
@@ -231,7 +221,8 @@ public class PreconditionExcerpts {
    *
    * <pre>code.add(checkArgument("age &gt;= 0", "age must be non-negative (got %s)", "age"));</pre>
    *
-   * @param condition an excerpt containing the expression to pass to the checkArgument method
+   * @param condition a {@link Condition}, or an excerpt containing the expression to pass to the
+   *     checkArgument method
    * @param message the error message template to pass to the checkArgument method
    * @param args excerpts containing the error message arguments to pass to the checkArgument method
    */
@@ -254,7 +245,8 @@ public class PreconditionExcerpts {
    * <pre>code.add(checkState("start &lt; end",
    *         "start must be before end (got %s and %s)", "start", "end"));</pre>
    *
-   * @param condition an excerpt containing the expression to pass to the checkState method
+   * @param condition a {@link Condition}, or an excerpt containing the expression to pass to the
+   *     checkState method
    * @param message the error message template to pass to the checkState method
    * @param args excerpts containing the error message arguments to pass to the checkState method
    */
@@ -266,26 +258,5 @@ public class PreconditionExcerpts {
         args, condition, message, "checkState", IllegalStateException.class);
   }
 
-  /**
-   * Negates {@code condition}, removing unnecessary brackets and double-negatives if possible.
-   */
-  private static String negate(SourceBuilder code, Object condition) {
-    SourceStringBuilder subBuilder = code.subBuilder();
-    subBuilder.add("%s", condition);
-    String conditionText = subBuilder.toString();
-    if (conditionText.startsWith("!")) {
-      return conditionText.substring(1);
-    } else if (ANY_OPERATOR.matcher(conditionText).find()) {
-      // The condition might already enclosed in a bracket, but we can't simply check for opening
-      // and closing brackets at the start and end of the string, as that misses cases like
-      // (a || b) && (c || d). Attempting to determine if the initial and closing bracket are paired
-      // requires understanding character constants and strings constants, so for simplicity we
-      // just add unnecessary brackets.
-      return "!(" + conditionText + ")";
-    } else {
-      return "!" + conditionText;
-    }
-  }
-
   private PreconditionExcerpts() {}
 }
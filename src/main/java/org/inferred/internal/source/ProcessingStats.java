@@ -0,0 +1,377 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Ordering;
+import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+import java.io.File;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * Wall time, allocation and output size of each round and each annotated type processed by a
+ * {@link SimpleTypeProcessor}, recorded if the {@value #OPTION} processor option is "true".
+ *
+ * <p>When processing is over, the {@value #TOP_OPTION} slowest types (default
+ * {@value #DEFAULT_TOP}) are reported in a note, and a JSON summary is written to the file named
+ * by the {@value #OUTPUT_OPTION} option, if set. The summary is written directly rather than
+ * through the {@code Filer}, as it depends on every type processed, so would otherwise force build
+ * tools tracking generated files, such as Gradle, to rebuild everything whenever stats are on.
+ * Allocation is measured with {@code com.sun.management.ThreadMXBean}, and reported as -1 on
+ * JVMs that do not support it.
+ */
+final class ProcessingStats {
+
+  /** Processor option which, if "true", enables recording. */
+  static final String OPTION = "org.inferred.source.stats";
+  /** Processor option setting how many of the slowest types to report. */
+  static final String TOP_OPTION = "org.inferred.source.stats.top";
+  static final int DEFAULT_TOP = 10;
+  /** Processor option naming the file to write the JSON summary to. */
+  static final String OUTPUT_OPTION = "org.inferred.source.stats.output";
+
+  /**
+   * The stats recording the current round on this thread, so {@link FilerUtils} can attribute
+   * writes without being passed them. Cleared at the end of each round.
+   */
+  private static final ThreadLocal<ProcessingStats> ACTIVE = new ThreadLocal<ProcessingStats>();
+
+  /**
+   * Returns stats configured by {@code options}, if recording is enabled. Invalid options are
+   * reported to {@code messager} as warnings, and their defaults used.
+   */
+  static Optional<ProcessingStats> forOptions(Map<String, String> options, Messager messager) {
+    if (!Boolean.parseBoolean(options.get(OPTION))) {
+      return Optional.absent();
+    }
+    int top = DEFAULT_TOP;
+    String topOption = options.get(TOP_OPTION);
+    if (topOption != null) {
+      Integer parsed = Ints.tryParse(topOption.trim());
+      if (parsed != null && parsed > 0) {
+        top = parsed;
+      } else {
+        messager.printMessage(Kind.WARNING, String.format(
+            "Unrecognized value '%s' for option %s; using %s", topOption, TOP_OPTION, top));
+      }
+    }
+    String output = options.get(OUTPUT_OPTION);
+    return Optional.of(new ProcessingStats(
+        top, (output == null || output.isEmpty()) ? null : new File(output)));
+  }
+
+  /** Measurements of one round or one type. */
+  static final class Sample {
+    private final String name;
+    private final int round;
+    /** The type being processed when this one was started, if processing was nested. */
+    private final Sample enclosing;
+    private final long startNanos;
+    private final long startAllocatedBytes;
+    private long wallNanos;
+    private long allocatedBytes;
+    private long characters;
+    private int units;
+
+    private Sample(String name, int round, Sample enclosing) {
+      this.name = name;
+      this.round = round;
+      this.enclosing = enclosing;
+      this.startNanos = System.nanoTime();
+      this.startAllocatedBytes = allocatedBytes();
+    }
+
+    private void end() {
+      wallNanos = System.nanoTime() - startNanos;
+      long endAllocatedBytes = allocatedBytes();
+      allocatedBytes = (startAllocatedBytes < 0 || endAllocatedBytes < 0)
+          ? -1 : endAllocatedBytes - startAllocatedBytes;
+    }
+
+    String name() {
+      return name;
+    }
+
+    long wallNanos() {
+      return wallNanos;
+    }
+
+    long characters() {
+      return characters;
+    }
+
+    int units() {
+      return units;
+    }
+
+    private void appendJsonTo(StringBuilder json) {
+      json.append("{\"name\": \"");
+      appendEscaped(json, name);
+      json.append("\", \"round\": ").append(round)
+          .append(", \"wallNanos\": ").append(wallNanos)
+          .append(", \"allocatedBytes\": ").append(allocatedBytes)
+          .append(", \"characters\": ").append(characters)
+          .append(", \"units\": ").append(units)
+          .append("}");
+    }
+  }
+
+  private static final Ordering<Sample> SLOWEST_FIRST = new Ordering<Sample>() {
+    @Override
+    public int compare(Sample left, Sample right) {
+      return Longs.compare(right.wallNanos, left.wallNanos);
+    }
+  };
+
+  private final int top;
+  /** The file to write the summary to, or null if it is not wanted. */
+  private final File output;
+  private final List<Sample> rounds = new ArrayList<Sample>();
+  private final List<Sample> types = new ArrayList<Sample>();
+  private Sample currentRound;
+  private Sample currentType;
+
+  private ProcessingStats(int top, File output) {
+    this.top = top;
+    this.output = output;
+  }
+
+  /** Starts recording a round, and attributing writes on this thread to it. */
+  void startRound() {
+    checkState(currentRound == null, "Round already started");
+    currentRound = new Sample("round " + (rounds.size() + 1), rounds.size() + 1, null);
+    ACTIVE.set(this);
+  }
+
+  /** Finishes recording the current round. */
+  void endRound() {
+    checkState(currentRound != null, "No round started");
+    currentRound.end();
+    rounds.add(currentRound);
+    currentRound = null;
+    ACTIVE.remove();
+  }
+
+  /**
+   * Starts recording {@code type}, attributing writes on this thread to it. Types may be nested,
+   * in which case the enclosing type is resumed when the nested one ends.
+   */
+  void startType(TypeElement type) {
+    currentType = new Sample(type.getQualifiedName().toString(), rounds.size() + 1, currentType);
+  }
+
+  /** Finishes recording the current type. */
+  void endType() {
+    checkState(currentType != null, "No type started");
+    currentType.end();
+    types.add(currentType);
+    currentType = currentType.enclosing;
+  }
+
+  List<Sample> rounds() {
+    return rounds;
+  }
+
+  List<Sample> types() {
+    return types;
+  }
+
+  /**
+   * Returns {@code writer}, wrapped to count the characters written if stats are being recorded on
+   * this thread. The unit is only recorded if passed to {@link #recordUnit(Writer)} once written.
+   */
+  static Writer countingWriter(Writer writer) {
+    ProcessingStats stats = ACTIVE.get();
+    return (stats == null) ? writer : stats.new CountingWriter(writer);
+  }
+
+  /**
+   * Records the unit written to {@code writer}, if it was returned by
+   * {@link #countingWriter(Writer)} while stats were being recorded. Units whose content did not
+   * change are not passed here.
+   */
+  static void recordUnit(Writer writer) {
+    if (writer instanceof CountingWriter) {
+      ((CountingWriter) writer).record();
+    }
+  }
+
+  private void recordUnit(long characters) {
+    if (currentRound != null) {
+      currentRound.characters += characters;
+      currentRound.units++;
+    }
+    if (currentType != null) {
+      currentType.characters += characters;
+      currentType.units++;
+    }
+  }
+
+  /** Returns a note listing the slowest types processed, or null if none were. */
+  String slowestTypesNote() {
+    if (types.isEmpty()) {
+      return null;
+    }
+    StringBuilder note = new StringBuilder("Slowest types:");
+    for (Sample type : SLOWEST_FIRST.leastOf(types, top)) {
+      note.append(String.format(Locale.ENGLISH, "%n  %s: %.1f ms, %d characters in %d units",
+          type.name, type.wallNanos / 1e6, type.characters, type.units));
+      if (type.allocatedBytes >= 0) {
+        note.append(String.format(
+            Locale.ENGLISH, ", %.1f MB allocated", type.allocatedBytes / (1024.0 * 1024.0)));
+      }
+    }
+    return note.toString();
+  }
+
+  /** Returns the recorded rounds and types as a JSON object. */
+  String toJson() {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n  \"rounds\": [");
+    appendJsonTo(json, rounds);
+    json.append("],\n  \"types\": [");
+    appendJsonTo(json, types);
+    json.append("]\n}\n");
+    return json.toString();
+  }
+
+  /**
+   * Writes the JSON summary to the {@value #OUTPUT_OPTION} file, replacing any earlier summary.
+   * Does nothing if the option was not set.
+   */
+  void writeSummary() throws IOException {
+    if (output == null) {
+      return;
+    }
+    File parent = output.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    Files.write(toJson(), output, Charsets.UTF_8);
+  }
+
+  private static void appendJsonTo(StringBuilder json, List<Sample> samples) {
+    String separator = "\n    ";
+    for (Sample sample : samples) {
+      json.append(separator);
+      sample.appendJsonTo(json);
+      separator = ",\n    ";
+    }
+    if (!samples.isEmpty()) {
+      json.append("\n  ");
+    }
+  }
+
+  private static void appendEscaped(StringBuilder json, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < ' ') {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+  }
+
+  /** Set if com.sun.management cannot be loaded on this JVM (e.g. J9). */
+  private static volatile boolean allocationsUnavailable;
+
+  /** Returns the bytes allocated by the current thread so far, or -1 if unsupported. */
+  private static long allocatedBytes() {
+    if (allocationsUnavailable) {
+      return -1;
+    }
+    try {
+      return SunAllocations.allocatedBytes();
+    } catch (LinkageError e) {
+      allocationsUnavailable = true;
+      return -1;
+    }
+  }
+
+  /**
+   * Reads per-thread allocations from the HotSpot-specific MXBean. Kept in its own class, so JVMs
+   * without com.sun.management fail to link only this class, not {@link ProcessingStats}.
+   */
+  private static final class SunAllocations {
+    static long allocatedBytes() {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (sunBean.isThreadAllocatedMemorySupported()
+            && sunBean.isThreadAllocatedMemoryEnabled()) {
+          return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+      }
+      return -1;
+    }
+  }
+
+  /** Counts characters written, to record the unit against the current samples. */
+  private class CountingWriter extends FilterWriter {
+    private long characters;
+    private boolean recorded;
+
+    CountingWriter(Writer out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      super.write(c);
+      characters++;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      super.write(cbuf, off, len);
+      characters += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      super.write(str, off, len);
+      characters += len;
+    }
+
+    void record() {
+      if (!recorded) {
+        recorded = true;
+        recordUnit(characters);
+      }
+    }
+  }
+}
@@ -16,12 +16,16 @@
 package org.inferred.internal.source;
 
 import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Iterables.getLast;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 import javax.lang.model.element.PackageElement;
 import javax.lang.model.element.TypeElement;
@@ -33,6 +37,32 @@ import javax.lang.model.element.TypeParameterElement;
  */
 public class QualifiedName extends ValueType {
 
+  /*
+   * Names are interned, so equal names are usually the same instance, and their string form and
+   * hash code are computed once. Class and TypeElement lookups are cached on weak (identity) keys,
+   * so neither classes nor compiler models are kept alive by the caches.
+   */
+  private static final Interner<QualifiedName> INTERNED_NAMES = Interners.newWeakInterner();
+
+  private static final LoadingCache<Class<?>, QualifiedName> CLASS_NAMES = CacheBuilder.newBuilder()
+      .weakKeys()
+      .build(new CacheLoader<Class<?>, QualifiedName>() {
+        @Override
+        public QualifiedName load(Class<?> cls) {
+          return qualifiedNameOf(cls);
+        }
+      });
+
+  private static final LoadingCache<TypeElement, QualifiedName> ELEMENT_NAMES =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .build(new CacheLoader<TypeElement, QualifiedName>() {
+            @Override
+            public QualifiedName load(TypeElement type) {
+              return qualifiedNameOf(type);
+            }
+          });
+
   /**
    * Returns a {@link QualifiedName} for a type in {@code packageName}. If {@code nestedTypes} is
    * empty, it is a top level type called {@code topLevelType}; otherwise, it is nested in that
@@ -41,7 +71,7 @@ public class QualifiedName extends ValueType {
   public static QualifiedName of(String packageName, String topLevelType, String... nestedTypes) {
     Preconditions.checkNotNull(!packageName.isEmpty());
     Preconditions.checkArgument(!topLevelType.isEmpty());
-    return new QualifiedName(
+    return intern(
         packageName, ImmutableList.<String>builder().add(topLevelType).add(nestedTypes).build());
   }
 
@@ -49,6 +79,17 @@ public class QualifiedName extends ValueType {
    * Returns a {@link QualifiedName} for {@code cls}.
    */
   public static QualifiedName of(Class<?> cls) {
+    return CLASS_NAMES.getUnchecked(cls);
+  }
+
+  /**
+   * Returns a {@link QualifiedName} for {@code type}.
+   */
+  public static QualifiedName of(TypeElement type) {
+    return ELEMENT_NAMES.getUnchecked(type);
+  }
+
+  private static QualifiedName qualifiedNameOf(Class<?> cls) {
     if (cls.getEnclosingClass() != null) {
       return QualifiedName.of(cls.getEnclosingClass()).nestedType(cls.getSimpleName());
     } else if (cls.getPackage() != null) {
@@ -58,10 +99,7 @@ public class QualifiedName extends ValueType {
     }
   }
 
-  /**
-   * Returns a {@link QualifiedName} for {@code type}.
-   */
-  public static QualifiedName of(TypeElement type) {
+  private static QualifiedName qualifiedNameOf(TypeElement type) {
     if (type.getNestingKind().isNested()) {
       QualifiedName enclosingElement = QualifiedName.of((TypeElement) type.getEnclosingElement());
       return enclosingElement.nestedType(type.getSimpleName().toString());
@@ -71,12 +109,18 @@ public class QualifiedName extends ValueType {
     }
   }
 
+  private static QualifiedName intern(String packageName, ImmutableList<String> simpleNames) {
+    return INTERNED_NAMES.intern(new QualifiedName(packageName, simpleNames));
+  }
+
   private final String packageName;
   private final ImmutableList<String> simpleNames;
+  private final String qualifiedName;
 
-  private QualifiedName(String packageName, Iterable<String> simpleNames) {
+  private QualifiedName(String packageName, ImmutableList<String> simpleNames) {
     this.packageName = packageName;
-    this.simpleNames = ImmutableList.copyOf(simpleNames);
+    this.simpleNames = simpleNames;
+    this.qualifiedName = packageName + "." + Joiner.on('.').join(simpleNames);
   }
 
   /**
@@ -87,7 +131,7 @@ public class QualifiedName extends ValueType {
    */
   @Override
   public String toString() {
-    return packageName + "." + Joiner.on('.').join(simpleNames);
+    return qualifiedName;
   }
 
   public String getPackage() {
@@ -110,7 +154,9 @@ public class QualifiedName extends ValueType {
    * Returns the {@link QualifiedName} of a type called {@code simpleName} nested in this one.
    */
   public QualifiedName nestedType(String simpleName) {
-    return new QualifiedName(packageName, concat(simpleNames, ImmutableList.of(simpleName)));
+    return intern(
+        packageName,
+        ImmutableList.<String>builder().addAll(simpleNames).add(simpleName).build());
   }
 
   public ParameterizedType withParameters(String... typeParameters) {
@@ -128,7 +174,7 @@ public class QualifiedName extends ValueType {
    */
   public QualifiedName getEnclosingType() {
     checkState(!isTopLevel(), "%s has no enclosing type", this);
-    return new QualifiedName(packageName, simpleNames.subList(0, simpleNames.size() - 1));
+    return intern(packageName, simpleNames.subList(0, simpleNames.size() - 1));
   }
 
   @Override
@@ -136,5 +182,17 @@ public class QualifiedName extends ValueType {
     fields.add("packageName", packageName);
     fields.add("simpleNames", simpleNames);
   }
+
+  @Override
+  protected boolean hasSameFields(ValueType other) {
+    QualifiedName otherName = (QualifiedName) other;
+    return qualifiedName.equals(otherName.qualifiedName)
+        && packageName.equals(otherName.packageName);
+  }
+
+  @Override
+  protected boolean isImmutable() {
+    return true;
+  }
 }
 
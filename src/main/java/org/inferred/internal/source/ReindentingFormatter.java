@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+/**
+ * A {@link SourceFormatter} that re-indents each line by two spaces per enclosing brace, and
+ * collapses runs of blank lines, dropping any directly inside a brace. Everything else, including
+ * line breaks, is left as written, so this is orders of magnitude cheaper than a full formatter.
+ *
+ * <p>Braces inside string and character literals and comments are ignored.
+ */
+final class ReindentingFormatter implements SourceFormatter {
+
+  private static final String INDENT = "  ";
+
+  @Override
+  public String formatSource(String source) {
+    StringBuilder result = new StringBuilder(source.length() + source.length() / 4);
+    int depth = 0;
+    boolean inBlockComment = false;
+    boolean pendingBlankLine = false;
+    boolean previousLineOpenedBlock = true;
+    int lineStart = 0;
+    while (lineStart < source.length()) {
+      int lineEnd = source.indexOf('\n', lineStart);
+      if (lineEnd == -1) {
+        lineEnd = source.length();
+      }
+      String line = source.substring(lineStart, lineEnd).trim();
+      lineStart = lineEnd + 1;
+
+      if (line.isEmpty()) {
+        pendingBlankLine = true;
+        continue;
+      }
+      int leadingCloses = inBlockComment ? 0 : countLeadingCloses(line);
+      if (pendingBlankLine && !previousLineOpenedBlock && leadingCloses == 0) {
+        result.append('\n');
+      }
+      pendingBlankLine = false;
+      for (int i = Math.max(0, depth - leadingCloses); i > 0; i--) {
+        result.append(INDENT);
+      }
+      if (inBlockComment && line.startsWith("*")) {
+        result.append(' ');
+      }
+      result.append(line).append('\n');
+
+      // Update the brace depth, skipping literals and comments.
+      for (int i = 0; i < line.length(); i++) {
+        char c = line.charAt(i);
+        if (inBlockComment) {
+          if (c == '*' && i + 1 < line.length() && line.charAt(i + 1) == '/') {
+            inBlockComment = false;
+            i++;
+          }
+        } else if (c == '/' && i + 1 < line.length() && line.charAt(i + 1) == '/') {
+          break;
+        } else if (c == '/' && i + 1 < line.length() && line.charAt(i + 1) == '*') {
+          inBlockComment = true;
+          i++;
+        } else if (c == '"' || c == '\'') {
+          i = endOfLiteral(line, i);
+        } else if (c == '{') {
+          depth++;
+        } else if (c == '}') {
+          depth = Math.max(0, depth - 1);
+        }
+      }
+      previousLineOpenedBlock = !inBlockComment && line.endsWith("{");
+    }
+    return result.toString();
+  }
+
+  private static int countLeadingCloses(String line) {
+    int closes = 0;
+    while (closes < line.length() && line.charAt(closes) == '}') {
+      closes++;
+    }
+    return closes;
+  }
+
+  /** Returns the index of the quote closing the literal opened at {@code start}. */
+  private static int endOfLiteral(String line, int start) {
+    char quote = line.charAt(start);
+    for (int i = start + 1; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == quote) {
+        return i;
+      }
+    }
+    return line.length();
+  }
+}
@@ -15,14 +15,27 @@
  */
 package org.inferred.internal.source;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Sets;
+import static org.inferred.internal.source.ModelUtils.asElement;
+import static org.inferred.internal.source.ModelUtils.maybeAsTypeElement;
+import static org.inferred.internal.source.ModelUtils.maybeType;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
 
 import java.lang.annotation.Annotation;
+import java.lang.annotation.Inherited;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
 
 /** Utility class for {@link RoundEnvironment}. */
 public class RoundEnvironments {
@@ -32,14 +45,84 @@ public class RoundEnvironments {
    * can contain elements annotated with annotations of ERROR type.
    *
    * <p>The canonical example is forgetting to import &#64;Nullable.
+   *
+   * <p>The result is computed once, so iterating it repeatedly, or calling {@code size()}, is
+   * cheap.
    */
   public static Set<? extends Element> annotatedElementsIn(
-      RoundEnvironment roundEnv, final Class<? extends Annotation> a) {
-    return Sets.filter(roundEnv.getElementsAnnotatedWith(a), new Predicate<Element>() {
-      @Override public boolean apply(Element element) {
-        return (element.getAnnotation(a) != null);
+      RoundEnvironment roundEnv, Class<? extends Annotation> a) {
+    return annotatedElementsIn(roundEnv, ImmutableList.<Class<? extends Annotation>>of(a)).get(a);
+  }
+
+  /**
+   * Returns the elements in {@code roundEnv} annotated with each of {@code annotations},
+   * sanitized as for {@link #annotatedElementsIn(RoundEnvironment, Class)}.
+   *
+   * <p>The annotation mirrors of each element are scanned once for all the annotation types,
+   * comparing qualified names, rather than creating a reflective proxy per element and type.
+   */
+  public static ImmutableSetMultimap<Class<? extends Annotation>, Element> annotatedElementsIn(
+      RoundEnvironment roundEnv, Iterable<? extends Class<? extends Annotation>> annotations) {
+    Map<String, Class<? extends Annotation>> annotationsByName =
+        new HashMap<String, Class<? extends Annotation>>();
+    Map<String, Class<? extends Annotation>> inheritedAnnotationsByName =
+        new HashMap<String, Class<? extends Annotation>>();
+    Set<Element> candidates = new LinkedHashSet<Element>();
+    for (Class<? extends Annotation> annotation : annotations) {
+      String name = Shading.unshadedName(annotation.getCanonicalName());
+      annotationsByName.put(name, annotation);
+      if (annotation.isAnnotationPresent(Inherited.class)) {
+        inheritedAnnotationsByName.put(name, annotation);
+      }
+      candidates.addAll(roundEnv.getElementsAnnotatedWith(annotation));
+    }
+    ImmutableSetMultimap.Builder<Class<? extends Annotation>, Element> result =
+        ImmutableSetMultimap.builder();
+    for (Element element : candidates) {
+      if (inheritedAnnotationsByName.isEmpty()) {
+        addAnnotations(result, element, element, annotationsByName, null);
+        continue;
+      }
+      // Walk up the superclasses only until every inherited annotation has been found.
+      Map<String, Class<? extends Annotation>> unmatched =
+          new HashMap<String, Class<? extends Annotation>>(inheritedAnnotationsByName);
+      addAnnotations(result, element, element, annotationsByName, unmatched);
+      Optional<TypeElement> type = maybeType(element);
+      while (type.isPresent() && !unmatched.isEmpty()) {
+        type = maybeAsTypeElement(type.get().getSuperclass());
+        if (type.isPresent()) {
+          addAnnotations(result, element, type.get(), unmatched, unmatched);
+        }
+      }
+    }
+    return result.build();
+  }
+
+  /**
+   * Adds {@code element} to {@code result} under each annotation in {@code annotationsByName}
+   * present on {@code annotatedElement}, and removes each one found from {@code unmatched}, if
+   * not null.
+   */
+  private static void addAnnotations(
+      ImmutableSetMultimap.Builder<Class<? extends Annotation>, Element> result,
+      Element element,
+      Element annotatedElement,
+      Map<String, Class<? extends Annotation>> annotationsByName,
+      Map<String, Class<? extends Annotation>> unmatched) {
+    for (AnnotationMirror mirror : annotatedElement.getAnnotationMirrors()) {
+      DeclaredType annotationType = mirror.getAnnotationType();
+      if (annotationType.getKind() == TypeKind.ERROR) {
+        continue;
+      }
+      String name = asElement(annotationType).getQualifiedName().toString();
+      Class<? extends Annotation> annotation = annotationsByName.get(name);
+      if (annotation != null) {
+        result.put(annotation, element);
+        if (unmatched != null) {
+          unmatched.remove(name);
+        }
       }
-    });
+    }
   }
 
   private RoundEnvironments() { }  // COV_NF_LINE
@@ -4,10 +4,13 @@ import static javax.lang.model.SourceVersion.latestSupported;
 import static org.inferred.internal.source.ModelUtils.findAnnotationMirror;
 import static org.inferred.internal.source.RoundEnvironments.annotatedElementsIn;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Ordering;
 
+import org.inferred.internal.source.feature.SourceFormatting;
+
 import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.util.Set;
@@ -28,13 +31,26 @@ import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
 import javax.tools.Diagnostic.Kind;
 
+/**
+ * Base class for processors generating code for each type with a given annotation.
+ *
+ * <p>Subclasses may declare themselves {@link #isolating() isolating}, letting Gradle recompile
+ * only the types affected by a change. The processor must then be registered as {@code dynamic}
+ * in its {@code META-INF/gradle/incremental.annotation.processors} file, e.g.
+ * <pre>com.example.MyProcessor,dynamic</pre>
+ */
 public abstract class SimpleTypeProcessor implements Processor {
 
+  /** Option reported to Gradle by {@link #isolating() isolating} processors. */
+  static final String GRADLE_ISOLATING_OPTION = "org.gradle.annotation.processing.isolating";
+
   protected Elements elements;
   protected ProcessingEnvironment env;
   protected Filer filer;
   protected Messager messager;
   protected Types types;
+  private Optional<ProcessingStats> stats = Optional.absent();
+  private Optional<Tracer> tracer = Optional.absent();
 
   protected void init() {}
 
@@ -42,6 +58,19 @@ public abstract class SimpleTypeProcessor implements Processor {
 
   protected abstract Class<? extends Annotation> annotation();
 
+  /**
+   * Returns true if every file this processor generates depends only on a single annotated type,
+   * which it passes to the {@link Filer} as the sole originating element. The {@link #filer} will
+   * then throw {@link IllegalStateException} if any file is generated without exactly one
+   * originating element, or, within {@link #process(Iterable, Processing)}, from outside the type
+   * being processed.
+   *
+   * <p>Defaults to false.
+   */
+  protected boolean isolating() {
+    return false;
+  }
+
   protected abstract void processAnnotatedElements(
       Set<? extends Element> annotatedElements, RoundEnvironment roundEnv);
 
@@ -56,7 +85,12 @@ public abstract class SimpleTypeProcessor implements Processor {
    */
   protected void process(Iterable<? extends TypeElement> types, Processing processing) {
     for (TypeElement type : types) {
+      if (stats.isPresent()) {
+        stats.get().startType(type);
+      }
+      Tracer.Span span = Tracer.start("analysis", type.getQualifiedName());
       try {
+        setCurrentType(type);
         processing.process(type);
       } catch (CannotGenerateCodeException e) {
         // Thrown to skip writing the builder source; the error will already have been issued.
@@ -78,17 +112,34 @@ public abstract class SimpleTypeProcessor implements Processor {
             "Internal error: " + Throwables.getStackTraceAsString(e),
             type,
             findAnnotationMirror(type, annotation()).get());
+      } finally {
+        span.end();
+        setCurrentType(null);
+        if (stats.isPresent()) {
+          stats.get().endType();
+        }
       }
     }
   }
 
+  private void setCurrentType(TypeElement type) {
+    if (filer instanceof IsolatingFiler) {
+      ((IsolatingFiler) filer).setCurrentType(type);
+    }
+  }
+
   @Override
   public void init(ProcessingEnvironment processingEnv) {
     elements = processingEnv.getElementUtils();
     env = processingEnv;
-    filer = processingEnv.getFiler();
+    filer = isolating()
+        ? new IsolatingFiler(processingEnv.getFiler())
+        : processingEnv.getFiler();
     messager = processingEnv.getMessager();
     types = processingEnv.getTypeUtils();
+    FilerUtils.recordSkipUnchanged(filer, FilerUtils.skipUnchanged(processingEnv));
+    stats = ProcessingStats.forOptions(processingEnv.getOptions(), processingEnv.getMessager());
+    tracer = Tracer.forEnvironment(processingEnv);
     init();
   }
 
@@ -104,7 +155,19 @@ public abstract class SimpleTypeProcessor implements Processor {
 
   @Override
   public Set<String> getSupportedOptions() {
-    return ImmutableSet.of();
+    ImmutableSet.Builder<String> options = ImmutableSet.<String>builder().add(
+        SourceFormatting.OPTION,
+        FormattedSourceCache.DIRECTORY_OPTION,
+        FormattedSourceCache.MAX_SIZE_OPTION,
+        FilerUtils.SKIP_UNCHANGED_OPTION,
+        ProcessingStats.OPTION,
+        ProcessingStats.TOP_OPTION,
+        ProcessingStats.OUTPUT_OPTION,
+        Tracer.OPTION);
+    if (isolating()) {
+      options.add(GRADLE_ISOLATING_OPTION);
+    }
+    return options.build();
   }
 
   @Override
@@ -115,8 +178,61 @@ public abstract class SimpleTypeProcessor implements Processor {
 
   @Override
   public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
-    processAnnotatedElements(annotatedElementsIn(roundEnv, annotation()), roundEnv);
+    if (stats.isPresent()) {
+      stats.get().startRound();
+    }
+    if (tracer.isPresent()) {
+      tracer.get().install();
+    }
+    PackageMemberIndex.startRound();
+    AnnotationMirrorIndex.startRound();
+    MethodIndex.startRound();
+    try {
+      processAnnotatedElements(annotatedElementsIn(roundEnv, annotation()), roundEnv);
+    } finally {
+      MethodIndex.endRound();
+      AnnotationMirrorIndex.endRound();
+      PackageMemberIndex.endRound();
+      if (tracer.isPresent()) {
+        tracer.get().uninstall();
+      }
+      if (stats.isPresent()) {
+        stats.get().endRound();
+      }
+    }
+    if (roundEnv.processingOver() && FilerUtils.skipUnchanged(env)) {
+      messager.printMessage(Kind.NOTE, "Generated source files: " + FilerUtils.writeCounts(filer));
+    }
+    if (roundEnv.processingOver()) {
+      Optional<FormattedSourceCache> formatCache = FormattedSourceCache.forEnvironment(env);
+      if (formatCache.isPresent()) {
+        messager.printMessage(Kind.NOTE, String.format("Formatted source cache: %s hits, %s misses",
+            formatCache.get().hitCount(), formatCache.get().missCount()));
+      }
+    }
+    if (roundEnv.processingOver() && stats.isPresent()) {
+      reportStats(stats.get());
+    }
+    if (roundEnv.processingOver() && tracer.isPresent()) {
+      try {
+        tracer.get().write();
+      } catch (IOException e) {
+        messager.printMessage(Kind.WARNING, "Could not write trace: " + e.getMessage());
+      }
+    }
     return false;
   }
 
+  private void reportStats(ProcessingStats stats) {
+    String note = stats.slowestTypesNote();
+    if (note != null) {
+      messager.printMessage(Kind.NOTE, note);
+    }
+    try {
+      stats.writeSummary();
+    } catch (IOException e) {
+      messager.printMessage(Kind.WARNING, "Could not write processing stats: " + e.getMessage());
+    }
+  }
+
 }
\ No newline at end of file
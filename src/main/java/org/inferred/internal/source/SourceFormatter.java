@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import org.inferred.internal.source.feature.SourceFormatting;
+
+/**
+ * Formats the body of a generated compilation unit (everything after the imports).
+ *
+ * <p>Built-in implementations are available from {@link SourceFormatters}, and are selected for
+ * each {@link CompilationUnitBuilder} by the {@link SourceFormatting} feature. Other
+ * implementations can be selected by naming them in the {@value SourceFormatting#OPTION} option;
+ * they must have a public no-argument constructor, and be safe to call from several threads.
+ */
+public interface SourceFormatter {
+
+  /**
+   * Returns {@code source}, formatted.
+   *
+   * @throws FormattingException if {@code source} could not be formatted
+   */
+  String formatSource(String source) throws FormattingException;
+
+  /** Thrown when a {@link SourceFormatter} cannot format its input. */
+  class FormattingException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public FormattingException(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+}
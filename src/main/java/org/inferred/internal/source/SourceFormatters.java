@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import com.google.googlejavaformat.java.Formatter;
+import com.google.googlejavaformat.java.FormatterException;
+import com.google.googlejavaformat.java.GoogleJavaFormatVersion;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+
+/** Built-in {@link SourceFormatter} implementations. */
+public class SourceFormatters {
+
+  private static final class GoogleJavaFormatter implements SourceFormatter {
+    /** Set if google-java-format cannot be loaded on this JVM. */
+    private volatile boolean unavailable;
+
+    @Override
+    public String formatSource(String source) throws FormattingException {
+      try {
+        return new Formatter().formatSource(source);
+      } catch (UnsupportedClassVersionError e) {
+        // Formatter requires Java 7+; do no formatting in Java 6.
+        unavailable = true;
+        return source;
+      } catch (FormatterException e) {
+        throw new FormattingException(e.getMessage(), e);
+      } catch (Error e) {
+        // There's lots of weird ways this can fail
+        throw new FormattingException("google-java-format failed: " + e, e);
+      } catch (RuntimeException e) {
+        throw new FormattingException("google-java-format failed: " + e, e);
+      }
+    }
+  }
+
+  private static final class IdentityFormatter implements SourceFormatter {
+    @Override
+    public String formatSource(String source) {
+      return source;
+    }
+  }
+
+  private static final SourceFormatter GOOGLE_JAVA_FORMAT = new GoogleJavaFormatter();
+  private static final SourceFormatter REINDENT = new ReindentingFormatter();
+  private static final SourceFormatter NONE = new IdentityFormatter();
+
+  /** Returns a formatter producing canonical google-java-format output. Expensive. */
+  public static SourceFormatter googleJavaFormat() {
+    return GOOGLE_JAVA_FORMAT;
+  }
+
+  /**
+   * Returns a fast formatter that only re-indents lines to match brace nesting, and tidies up
+   * blank lines. Line breaks are left as written.
+   */
+  public static SourceFormatter reindent() {
+    return REINDENT;
+  }
+
+  /** Returns a formatter that leaves source code unchanged. */
+  public static SourceFormatter none() {
+    return NONE;
+  }
+
+  /**
+   * Returns false if {@code formatter} has returned its input unformatted because it cannot run
+   * on this JVM, so its output must not be mistaken for formatted source.
+   */
+  static boolean isAvailable(SourceFormatter formatter) {
+    return !(formatter instanceof GoogleJavaFormatter)
+        || !((GoogleJavaFormatter) formatter).unavailable;
+  }
+
+  private static class ClassVersionLoader extends CacheLoader<Class<?>, String> {
+    @Override
+    public String load(Class<?> cls) {
+      String hash = codeHash(cls);
+      if (hash == null) {
+        // The code cannot be identified, so never share entries with another JVM
+        hash = "unversioned:" + System.identityHashCode(cls) + ":" + System.nanoTime();
+      }
+      return cls.getName() + ":" + hash;
+    }
+  }
+
+  private static final LoadingCache<Class<?>, String> CLASS_VERSIONS =
+      CacheBuilder.newBuilder().weakKeys().build(new ClassVersionLoader());
+
+  /**
+   * Returns a string identifying the behaviour of {@code formatter}, which changes whenever its
+   * output for a given input might.
+   *
+   * <p>Formatters other than google-java-format are identified by a hash of the jar they were
+   * loaded from, or of their class file if they were not loaded from a jar.
+   */
+  static String versionOf(SourceFormatter formatter) {
+    if (formatter == GOOGLE_JAVA_FORMAT) {
+      return "google-java-format:" + GoogleJavaFormatVersion.VERSION;
+    }
+    return CLASS_VERSIONS.getUnchecked(formatter.getClass());
+  }
+
+  /** Returns a hash of the jar or class file {@code cls} was loaded from, or null if unknown. */
+  private static String codeHash(Class<?> cls) {
+    try {
+      Hasher hasher = Hashing.sha256().newHasher();
+      File jar = jarOf(cls);
+      if (jar != null) {
+        hasher.putBytes(Files.toByteArray(jar));
+      } else {
+        String name = cls.getName();
+        URL classFile = cls.getResource(name.substring(name.lastIndexOf('.') + 1) + ".class");
+        if (classFile == null) {
+          return null;
+        }
+        hasher.putBytes(Resources.toByteArray(classFile));
+      }
+      return hasher.hash().toString();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /** Returns the jar file {@code cls} was loaded from, or null if it was not loaded from one. */
+  private static File jarOf(Class<?> cls) {
+    CodeSource codeSource = cls.getProtectionDomain().getCodeSource();
+    if (codeSource == null || codeSource.getLocation() == null) {
+      return null;
+    }
+    try {
+      File file = new File(codeSource.getLocation().toURI());
+      return file.isFile() ? file : null;
+    } catch (URISyntaxException e) {
+      return null;
+    } catch (IllegalArgumentException e) {
+      // Not a file: URI
+      return null;
+    }
+  }
+
+  private SourceFormatters() {}
+}
@@ -23,6 +23,8 @@ import org.inferred.internal.source.feature.FeatureSet;
 import org.inferred.internal.source.feature.FeatureType;
 import org.inferred.internal.source.feature.StaticFeatureSet;
 
+import java.io.IOException;
+
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
@@ -33,13 +35,21 @@ import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 
 /**
- * A {@link SourceBuilder} that writes to a {@link StringBuilder}.
+ * A {@link SourceBuilder} that writes to an in-memory {@link ChunkedCharBuffer}.
  */
 public final class SourceStringBuilder implements SourceBuilder {
 
+  /**
+   * An {@link Excerpt} whose output depends only on the {@link TypeShortener}, not on features,
+   * so it can be rendered once per compilation unit and reused. It must be a {@link ValueType}
+   * whose fields never change.
+   */
+  interface CacheableExcerpt {}
+
   private final TypeShortener shortener;
-  private final StringBuilder destination = new StringBuilder();
+  private final ChunkedCharBuffer destination;
   private final FeatureSet features;
+  private final FormatTemplate.Destination inlineDestination = new InlineDestination();
 
   /**
    * Returns a {@link SourceStringBuilder} that always shortens types, even if that causes
@@ -51,29 +61,39 @@ public final class SourceStringBuilder implements SourceBuilder {
   }
 
   SourceStringBuilder(TypeShortener shortener, FeatureSet features) {
+    this(shortener, features, new ChunkedCharBuffer());
+  }
+
+  SourceStringBuilder(
+      TypeShortener shortener, FeatureSet features, ChunkedCharBuffer destination) {
     this.shortener = shortener;
     this.features = features;
+    this.destination = destination;
   }
 
   @Override
   public SourceBuilder add(Excerpt excerpt) {
-    excerpt.addTo(this);
+    addExcerpt(excerpt);
     return this;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>{@link Excerpt} and {@link AnnotationMirror} arguments are rendered directly into this
+   * builder at their slot position, rather than into a throwaway sub-builder.
+   */
   @Override
   public SourceBuilder add(String fmt, Object... args) {
-    Object[] substituteArgs = new Object[args.length];
-    for (int i = 0; i < args.length; i++) {
-      substituteArgs[i] = substitute(args[i]);
-    }
-    destination.append(String.format(fmt, substituteArgs));
+    FormatTemplate.of(fmt).renderTo(inlineDestination, args);
     return this;
   }
 
   @Override
   public SourceBuilder addLine(String fmt, Object... args) {
-    return add(fmt + "\n", args);
+    add(fmt, args);
+    destination.append('\n');
+    return this;
   }
 
   @Override
@@ -86,12 +106,51 @@ public final class SourceStringBuilder implements SourceBuilder {
     return features.get(feature);
   }
 
+  /** Returns the features this builder renders with. */
+  FeatureSet features() {
+    return features;
+  }
+
   /** Returns the source code written so far. */
   @Override
   public String toString() {
     return destination.toString();
   }
 
+  /** Appends the source code written so far to {@code appendable}, without copying it first. */
+  void writeTo(Appendable appendable) throws IOException {
+    destination.writeTo(appendable);
+  }
+
+  /**
+   * Recycles the memory used to hold the source code written so far. This builder must not be
+   * used afterwards.
+   */
+  void release() {
+    destination.release();
+  }
+
+  /**
+   * Writes {@code excerpt} into this builder, reusing the text rendered earlier in the same
+   * compilation unit if it is a {@link CacheableExcerpt}.
+   */
+  private void addExcerpt(Excerpt excerpt) {
+    if (!(excerpt instanceof CacheableExcerpt) || !(shortener instanceof ImportManager)) {
+      excerpt.addTo(this);
+      return;
+    }
+    ImportManager importManager = (ImportManager) shortener;
+    String rendered = importManager.getRenderedExcerpt(excerpt);
+    if (rendered == null) {
+      int generation = importManager.getMemoGeneration();
+      SourceStringBuilder excerptBuilder = subBuilder();
+      excerpt.addTo(excerptBuilder);
+      rendered = excerptBuilder.toString();
+      importManager.putRenderedExcerpt(excerpt, rendered, generation);
+    }
+    destination.append(rendered);
+  }
+
   private Object substitute(Object arg) {
     if (arg instanceof Excerpt) {
       SourceBuilder excerptBuilder = subBuilder();
@@ -109,7 +168,7 @@ public final class SourceStringBuilder implements SourceBuilder {
         return arg;
       }
     } else if (arg instanceof Class<?>) {
-      return shortener.shorten(QualifiedName.of((Class<?>) arg));
+      return shortener.shorten((Class<?>) arg);
     } else if ((arg instanceof TypeMirror) && (((TypeMirror) arg).getKind() == TypeKind.DECLARED)) {
       DeclaredType mirror = (DeclaredType) arg;
       checkArgument(isLegalType(mirror), "Cannot write unknown type %s", mirror);
@@ -128,4 +187,28 @@ public final class SourceStringBuilder implements SourceBuilder {
   private static boolean isLegalType(TypeMirror mirror) {
     return !(new IsInvalidTypeVisitor().visit(mirror));
   }
+
+  /** Writes template output, including excerpt arguments, straight into {@link #destination}. */
+  private final class InlineDestination implements FormatTemplate.Destination {
+    @Override
+    public void append(CharSequence text) {
+      destination.append(text);
+    }
+
+    @Override
+    public void appendArgument(Object arg) {
+      if (arg instanceof Excerpt) {
+        addExcerpt((Excerpt) arg);
+      } else if (arg instanceof AnnotationMirror) {
+        addSource(SourceStringBuilder.this, (AnnotationMirror) arg);
+      } else {
+        destination.append(FormatTemplate.stringValue(SourceStringBuilder.this.substitute(arg)));
+      }
+    }
+
+    @Override
+    public Object substitute(Object arg) {
+      return SourceStringBuilder.this.substitute(arg);
+    }
+  }
 }
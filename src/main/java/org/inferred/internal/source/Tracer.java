@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.annotation.processing.ProcessingEnvironment;
+
+/**
+ * Records a timeline of code generation phases, if the {@value #OPTION} processor option names a
+ * file to write it to, in the Trace Event Format understood by {@code chrome://tracing} and
+ * Perfetto.
+ *
+ * <p>Each span records the phase, the thread it ran on and the type it was for:
+ * <ul>
+ * <li>{@code analysis}: a {@link SimpleTypeProcessor} processing one annotated type;
+ * <li>{@code render}: a {@link CompilationUnitBuilder} being filled with excerpts;
+ * <li>{@code imports}: the package declaration and imports of a unit being written;
+ * <li>{@code format}: a unit body being formatted; and
+ * <li>{@code write}: a unit being written through the {@code Filer} by {@link FilerUtils}.
+ * </ul>
+ *
+ * <p>Spans are recorded to the tracer {@link #install() installed} on the current thread, which
+ * {@link SimpleTypeProcessor} does only for the duration of each round, so concurrent compilations
+ * in one JVM trace separately, and nothing is recorded between them. When no trace is being
+ * recorded, {@link #start} returns a shared no-op span, so tracing costs a single thread-local
+ * read per span.
+ */
+final class Tracer {
+
+  /** Processor option naming the file to write the trace to. */
+  static final String OPTION = "org.inferred.source.trace";
+
+  /** A phase of work, which must be {@link #end() ended} on the thread that started it. */
+  static class Span {
+    private static final Span NONE = new Span();
+
+    /** Records the end of this span. Does nothing if called again. */
+    void end() {}
+  }
+
+  private static final Map<ProcessingEnvironment, Tracer> TRACERS =
+      new WeakHashMap<ProcessingEnvironment, Tracer>();
+
+  /** The tracer spans on this thread are recorded to, if any. */
+  private static final ThreadLocal<Tracer> ACTIVE = new ThreadLocal<Tracer>();
+
+  /**
+   * Returns the tracer for {@code env}, if the {@value #OPTION} option is set. It records nothing
+   * until {@link #install() installed}.
+   */
+  static Optional<Tracer> forEnvironment(ProcessingEnvironment env) {
+    String output = env.getOptions().get(OPTION);
+    if (output == null || output.isEmpty()) {
+      return Optional.absent();
+    }
+    synchronized (TRACERS) {
+      Tracer tracer = TRACERS.get(env);
+      if (tracer == null) {
+        tracer = new Tracer(new File(output));
+        TRACERS.put(env, tracer);
+      }
+      return Optional.of(tracer);
+    }
+  }
+
+  /** Returns a new tracer writing to {@code output}, which records nothing until installed. */
+  static Tracer writingTo(File output) {
+    return new Tracer(output);
+  }
+
+  /** Records spans started on the current thread to this tracer, until {@link #uninstall()}. */
+  void install() {
+    ACTIVE.set(this);
+  }
+
+  /** Stops recording spans on the current thread to this tracer, if it is installed. */
+  void uninstall() {
+    if (ACTIVE.get() == this) {
+      ACTIVE.remove();
+    }
+  }
+
+  /**
+   * Returns the tracer installed on the current thread, or null. Work handed to other threads
+   * should pass it to {@link #start(Tracer, String, Object)}.
+   */
+  static Tracer active() {
+    return ACTIVE.get();
+  }
+
+  /**
+   * Starts a span for {@code phase} on the tracer installed on the current thread, if any.
+   * {@code type}, the type being generated, is only converted to a string if a trace is being
+   * recorded.
+   */
+  static Span start(String phase, Object type) {
+    return start(ACTIVE.get(), phase, type);
+  }
+
+  /** Starts a span for {@code phase} on {@code tracer}, or a no-op span if it is null. */
+  static Span start(Tracer tracer, String phase, Object type) {
+    if (tracer == null) {
+      return Span.NONE;
+    }
+    return tracer.new RecordingSpan(phase, type);
+  }
+
+  private final File output;
+  private final long startNanos = System.nanoTime();
+  private final List<String> events = new ArrayList<String>();
+  private final Map<Long, String> threadNames = new LinkedHashMap<Long, String>();
+
+  private Tracer(File output) {
+    this.output = output;
+  }
+
+  /** Returns every span recorded so far, and the names of their threads, as a JSON object. */
+  String toJson() {
+    StringBuilder json = new StringBuilder("{\"traceEvents\": [");
+    String separator = "\n  ";
+    synchronized (this) {
+      for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+        json.append(separator)
+            .append("{\"name\": \"thread_name\", \"ph\": \"M\", \"pid\": 1, \"tid\": ")
+            .append(thread.getKey())
+            .append(", \"args\": {\"name\": \"");
+        appendEscaped(json, thread.getValue());
+        json.append("\"}}");
+        separator = ",\n  ";
+      }
+      for (String event : events) {
+        json.append(separator).append(event);
+        separator = ",\n  ";
+      }
+    }
+    json.append("\n], \"displayTimeUnit\": \"ms\"}\n");
+    return json.toString();
+  }
+
+  /** Writes every span recorded so far to the output file, replacing any earlier trace. */
+  void write() throws IOException {
+    File parent = output.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    Files.write(toJson(), output, Charsets.UTF_8);
+  }
+
+  private synchronized void record(String event, Thread thread) {
+    events.add(event);
+    if (!threadNames.containsKey(thread.getId())) {
+      threadNames.put(thread.getId(), thread.getName());
+    }
+  }
+
+  private static void appendEscaped(StringBuilder json, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < ' ') {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+  }
+
+  private class RecordingSpan extends Span {
+    private final String phase;
+    private final Object type;
+    private final long spanStartNanos = System.nanoTime();
+    private boolean ended;
+
+    RecordingSpan(String phase, Object type) {
+      this.phase = phase;
+      this.type = type;
+    }
+
+    @Override
+    void end() {
+      if (ended) {
+        return;
+      }
+      ended = true;
+      long endNanos = System.nanoTime();
+      Thread thread = Thread.currentThread();
+      StringBuilder event = new StringBuilder();
+      event.append("{\"name\": \"").append(phase)
+          .append("\", \"cat\": \"").append(phase)
+          .append("\", \"ph\": \"X\", \"pid\": 1, \"tid\": ").append(thread.getId())
+          .append(", \"ts\": ").append((spanStartNanos - startNanos) / 1000)
+          .append(", \"dur\": ").append((endNanos - spanStartNanos) / 1000)
+          .append(", \"args\": {\"type\": \"");
+      appendEscaped(event, String.valueOf(type));
+      event.append("\"}}");
+      record(event.toString(), thread);
+    }
+  }
+}
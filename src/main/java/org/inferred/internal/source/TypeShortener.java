@@ -35,6 +35,7 @@ interface TypeShortener {
 
   String shorten(TypeMirror mirror);
   String shorten(QualifiedName type);
+  String shorten(Class<?> cls);
 
   /** A {@link TypeShortener} that never shortens types. */
   class NeverShorten
@@ -51,6 +52,11 @@ interface TypeShortener {
       return type.toString();
     }
 
+    @Override
+    public String shorten(Class<?> cls) {
+      return shorten(QualifiedName.of(cls));
+    }
+
     @Override
     public String apply(TypeMirror mirror) {
       return mirror.accept(this, null);
@@ -97,6 +103,11 @@ interface TypeShortener {
       return type.toString().substring(type.getPackage().length() + 1);
     }
 
+    @Override
+    public String shorten(Class<?> cls) {
+      return shorten(QualifiedName.of(cls));
+    }
+
     @Override
     public String apply(TypeMirror mirror) {
       return mirror.accept(this, null);
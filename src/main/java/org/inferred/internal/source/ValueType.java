@@ -15,8 +15,9 @@
  */
 package org.inferred.internal.source;
 
-import java.util.ArrayList;
-import java.util.List;
+import com.google.common.base.Objects;
+
+import java.util.Arrays;
 
 /**
  * Represents an instance that compares in {@link Object#hashCode()} and
@@ -36,18 +37,39 @@ public abstract class ValueType {
     void add(String name, Object value);
   }
 
-  /** A receiver that adds all received field names and values into a list in order. */
-  private static final class ReceiverIntoList implements FieldReceiver {
-    private final List<Object> list = new ArrayList<Object>();
+  /**
+   * A receiver that buffers the names and values of one instance's fields, then compares another
+   * instance's fields against that buffer as they are received, skipping value comparisons after
+   * the first difference.
+   */
+  private static final class ReceiverComparingFields implements FieldReceiver {
+    private Object[] buffer = new Object[8];
+    private int size;
+    private boolean comparing;
+    private int compared;
+    private boolean different;
 
     @Override
     public void add(String name, Object value) {
-      list.add(name);
-      list.add(value);
+      if (!comparing) {
+        if (size + 2 > buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[size++] = name;
+        buffer[size++] = value;
+      } else if (!different) {
+        different = (compared + 2 > size)
+            || !name.equals(buffer[compared])
+            || !Objects.equal(value, buffer[compared + 1]);
+        compared += 2;
+      }
     }
 
-    public List<Object> get() {
-      return list;
+    boolean compare(ValueType a, ValueType b) {
+      a.addFields(this);
+      comparing = true;
+      b.addFields(this);
+      return !different && compared == size;
     }
   }
 
@@ -92,26 +114,66 @@ public abstract class ValueType {
     }
   }
 
+  /** The hash code, if {@link #isImmutable()} and it has been computed; 0 otherwise. */
+  private int cachedHashCode;
+
   /** Implement this method to report the name and value of each field. */
   protected abstract void addFields(FieldReceiver fields);
 
+  /**
+   * Returns whether this instance has the same fields as {@code other}, an instance of the same
+   * class.
+   *
+   * <p>The default implementation compares the fields reported by
+   * {@link #addFields(FieldReceiver)} pairwise: this instance's fields are buffered, and the other
+   * instance's are compared against them as they are reported. Subclasses
+   * with cheaper direct comparisons may override it, in a way consistent with
+   * {@link #addFields(FieldReceiver)}; if the subclass can itself be extended, the override
+   * should defer to this implementation for subclasses, which may add fields.
+   */
+  protected boolean hasSameFields(ValueType other) {
+    return new ReceiverComparingFields().compare(this, other);
+  }
+
+  /**
+   * Returns true if the fields of this instance, and of every value in them, never change, so its
+   * hash code need only be computed once. Defaults to false.
+   */
+  protected boolean isImmutable() {
+    return false;
+  }
+
   @Override
   public final boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
     if ((obj == null) || (obj.getClass() != this.getClass())) {
       return false;
     }
-    ReceiverIntoList a = new ReceiverIntoList();
-    ReceiverIntoList b = new ReceiverIntoList();
-    this.addFields(a);
-    ((ValueType) obj).addFields(b);
-    return a.get().equals(b.get());
+    ValueType other = (ValueType) obj;
+    if (isImmutable()
+        && cachedHashCode != 0
+        && other.cachedHashCode != 0
+        && cachedHashCode != other.cachedHashCode) {
+      return false;
+    }
+    return hasSameFields(other);
   }
 
   @Override
   public final int hashCode() {
-    ReceiverIntoHashCode receiver = new ReceiverIntoHashCode();
-    addFields(receiver);
-    return receiver.get();
+    int hashCode = cachedHashCode;
+    if (hashCode == 0) {
+      ReceiverIntoHashCode receiver = new ReceiverIntoHashCode();
+      addFields(receiver);
+      hashCode = receiver.get();
+      if (isImmutable()) {
+        // Benign race: every thread computes the same value.
+        cachedHashCode = hashCode;
+      }
+    }
+    return hashCode;
   }
 
   @Override
@@ -4,6 +4,10 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 import javax.annotation.processing.ProcessingEnvironment;
 
 /**
@@ -12,34 +16,75 @@ import javax.annotation.processing.ProcessingEnvironment;
  */
 public class EnvironmentFeatureSet implements FeatureSet {
 
+  /** Feature sets shared by every compilation unit written in a processing environment. */
+  private static final Map<ProcessingEnvironment, EnvironmentFeatureSet> SHARED =
+      new WeakHashMap<ProcessingEnvironment, EnvironmentFeatureSet>();
+
+  /**
+   * Returns the feature set shared by all users of {@code env}, so each feature is only
+   * determined once per compilation.
+   */
+  public static EnvironmentFeatureSet forEnvironment(ProcessingEnvironment env) {
+    synchronized (SHARED) {
+      EnvironmentFeatureSet features = SHARED.get(env);
+      if (features == null) {
+        features = new EnvironmentFeatureSet(env, false);
+        SHARED.put(env, features);
+      }
+      return features;
+    }
+  }
+
   private static class FeatureFromEnvironmentLoader
       extends CacheLoader<FeatureType<?>, Feature<?>> {
-    private final ProcessingEnvironment env;
+    // Weak, so a shared feature set does not keep its map key reachable
+    private final WeakReference<ProcessingEnvironment> env;
 
     /** <pre>featureType -> featureType.forEnvironment(env)</pre> */
     private FeatureFromEnvironmentLoader(ProcessingEnvironment env) {
-      this.env = env;
+      this.env = new WeakReference<ProcessingEnvironment>(env);
     }
 
     @Override
     public Feature<?> load(FeatureType<?> featureType) {
+      ProcessingEnvironment env = this.env.get();
+      if (env == null) {
+        throw new IllegalStateException("Processing environment is no longer in use");
+      }
       return featureType.forEnvironment(env);
     }
   }
 
+  /** Keeps the environment of an unshared feature set reachable; null if shared. */
+  @SuppressWarnings("unused")
+  private final ProcessingEnvironment env;
   private final LoadingCache<FeatureType<?>, Feature<?>> featuresByType;
+  private final FeatureArray resolved = new FeatureArray();
 
-  /** Constructs a feature set using the given processing environment. */
+  /**
+   * Constructs a feature set using the given processing environment.
+   *
+   * <p>Prefer {@link #forEnvironment(ProcessingEnvironment)}, which shares one set across the
+   * compilation.
+   */
   public EnvironmentFeatureSet(ProcessingEnvironment env) {
+    this(env, true);
+  }
+
+  private EnvironmentFeatureSet(ProcessingEnvironment env, boolean retainEnvironment) {
+    this.env = retainEnvironment ? env : null;
     featuresByType = CacheBuilder.newBuilder()
-        .concurrencyLevel(1)
         .build(new FeatureFromEnvironmentLoader(env));
   }
 
   @Override
   public <T extends Feature<T>> T get(FeatureType<T> featureType) {
+    T feature = resolved.get(featureType);
+    if (feature != null) {
+      return feature;
+    }
     @SuppressWarnings("unchecked")
-    T feature = (T) featuresByType.getUnchecked(featureType);
-    return feature;
+    T loaded = (T) featuresByType.getUnchecked(featureType);
+    return resolved.put(featureType, loaded);
   }
 }
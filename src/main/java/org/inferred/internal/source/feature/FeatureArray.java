@@ -0,0 +1,36 @@
+package org.inferred.internal.source.feature;
+
+/**
+ * Features stored by {@link FeatureType#index}, so a lookup is a field read and an array load.
+ *
+ * <p>Slots are filled lazily, as features are resolved. A feature for a given type never changes
+ * once resolved, so racing writers store the same value and readers need no locking.
+ */
+class FeatureArray {
+
+  private volatile Feature<?>[] features = new Feature<?>[0];
+
+  /** Returns the feature stored for {@code featureType}, or null if none has been stored yet. */
+  <T extends Feature<T>> T get(FeatureType<T> featureType) {
+    Feature<?>[] features = this.features;
+    if (featureType.index >= features.length) {
+      return null;
+    }
+    @SuppressWarnings("unchecked")
+    T feature = (T) features[featureType.index];
+    return feature;
+  }
+
+  /** Stores {@code feature} for {@code featureType}, returning it. */
+  synchronized <T extends Feature<T>> T put(FeatureType<T> featureType, T feature) {
+    Feature<?>[] features = this.features;
+    if (featureType.index >= features.length) {
+      Feature<?>[] grown = new Feature<?>[Math.max(featureType.index + 1, features.length * 2)];
+      System.arraycopy(features, 0, grown, 0, features.length);
+      features = grown;
+    }
+    features[featureType.index] = feature;
+    this.features = features;
+    return feature;
+  }
+}
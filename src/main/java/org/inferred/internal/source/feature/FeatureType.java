@@ -2,6 +2,8 @@ package org.inferred.internal.source.feature;
 
 import org.inferred.internal.source.SourceBuilder;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.annotation.processing.ProcessingEnvironment;
 
 /**
@@ -13,6 +15,14 @@ import javax.annotation.processing.ProcessingEnvironment;
  */
 public abstract class FeatureType<F extends Feature<F>> {
 
+  private static final AtomicInteger NEXT_INDEX = new AtomicInteger();
+
+  /**
+   * Dense index of this feature type, assigned at construction, so feature sets can store their
+   * features in a {@link FeatureArray}.
+   */
+  final int index = NEXT_INDEX.getAndIncrement();
+
   /** Returns the instance of {@code F} to use by default in tests. */
   protected abstract F testDefault();
 
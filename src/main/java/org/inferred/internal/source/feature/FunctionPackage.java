@@ -32,7 +32,7 @@ public enum FunctionPackage implements Feature<FunctionPackage> {
 
         @Override
         protected FunctionPackage forEnvironment(ProcessingEnvironment env) {
-          if (runningInEclipse()) {
+          if (runningInEclipse(env)) {
             // Eclipse is bugged: sourceVersion will never be > 7.
             // Work around this by checking for the presence of java.util.function.Consumer instead.
             return hasType(env.getElementUtils(), CONSUMER) ? AVAILABLE : UNAVAILABLE;
@@ -42,8 +42,8 @@ public enum FunctionPackage implements Feature<FunctionPackage> {
         }
       };
 
-  private static final String ECLIPSE_DISPATCHER =
-      Shading.unshadedName("org.eclipse.jdt.internal.compiler.apt.dispatch.RoundDispatcher");
+  private static final String ECLIPSE_APT_PACKAGE =
+      Shading.unshadedName("org.eclipse.jdt.");
   private static final ParameterizedType CONSUMER =
       QualifiedName.of("java.util.function", "Consumer").withParameters("T");
   private static final ParameterizedType BI_CONSUMER =
@@ -72,18 +72,14 @@ public enum FunctionPackage implements Feature<FunctionPackage> {
     return ifAvailable(UNARY_OPERATOR);
   }
 
-  private static boolean runningInEclipse() {
-    // If we're running in Eclipse, we will have been invoked by the Eclipse round dispatcher.
-    Throwable t = new Throwable();
-    t.fillInStackTrace();
-    for (StackTraceElement method : t.getStackTrace()) {
-      if (method.getClassName().equals(ECLIPSE_DISPATCHER)) {
-        return true;
-      } else if (!method.getClassName().startsWith("org.inferred")) {
-        return false;
-      }
-    }
-    return false;
+  /**
+   * Returns whether {@code env} is from the Eclipse compiler. Build tools may wrap the environment,
+   * so its element utilities, which wrappers pass through, are checked too. Features are only
+   * computed once per environment, so this is cheap enough to check every time.
+   */
+  private static boolean runningInEclipse(ProcessingEnvironment env) {
+    return env.getClass().getName().startsWith(ECLIPSE_APT_PACKAGE)
+        || env.getElementUtils().getClass().getName().startsWith(ECLIPSE_APT_PACKAGE);
   }
 
   private static boolean hasLambdas(SourceVersion version) {
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source.feature;
+
+import com.google.common.collect.ImmutableList;
+
+import org.inferred.internal.source.SourceBuilder;
+import org.inferred.internal.source.SourceFormatter;
+import org.inferred.internal.source.SourceFormatters;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * How generated source code is formatted. Selected with the {@value #OPTION} processor option
+ * (e.g. {@code -Aorg.inferred.source.formatter=reindent}); defaults to
+ * {@link #GOOGLE_JAVA_FORMAT}, in tests as well.
+ *
+ * <p>Besides the built-in values, the option may give the binary name of a
+ * {@link SourceFormatter} implementation with a public no-argument constructor, loaded from the
+ * processor path (e.g. {@code -Aorg.inferred.source.formatter=com.example.MyFormatter}).
+ */
+public final class SourceFormatting implements Feature<SourceFormatting> {
+
+  /** Canonical google-java-format output. Expensive; recommended for release builds. */
+  public static final SourceFormatting GOOGLE_JAVA_FORMAT =
+      new SourceFormatting("google-java-format", SourceFormatters.googleJavaFormat());
+  /** Fixes brace indentation and blank lines only. Fast. */
+  public static final SourceFormatting REINDENT =
+      new SourceFormatting("reindent", SourceFormatters.reindent());
+  /** Leaves the source exactly as written. */
+  public static final SourceFormatting NONE =
+      new SourceFormatting("none", SourceFormatters.none());
+
+  private static final ImmutableList<SourceFormatting> BUILT_IN =
+      ImmutableList.of(GOOGLE_JAVA_FORMAT, REINDENT, NONE);
+
+  /** The processor option used to select a formatter. */
+  public static final String OPTION = "org.inferred.source.formatter";
+
+  /**
+   * Constant to pass to {@link SourceBuilder#feature(FeatureType)} to get the current
+   * {@link SourceFormatting}.
+   */
+  public static final FeatureType<SourceFormatting> SOURCE_FORMATTING =
+      new FeatureType<SourceFormatting>() {
+
+        @Override
+        protected SourceFormatting testDefault() {
+          return GOOGLE_JAVA_FORMAT;
+        }
+
+        @Override
+        protected SourceFormatting forEnvironment(ProcessingEnvironment env) {
+          String option = env.getOptions().get(OPTION);
+          if (option == null) {
+            return GOOGLE_JAVA_FORMAT;
+          }
+          for (SourceFormatting formatting : BUILT_IN) {
+            if (formatting.optionValue.equals(option)) {
+              return formatting;
+            }
+          }
+          try {
+            return new SourceFormatting(option, loadFormatter(option));
+          } catch (ClassNotFoundException e) {
+            env.getMessager().printMessage(Kind.WARNING, String.format(
+                "Unrecognized value '%s' for option %s; using %s",
+                option, OPTION, GOOGLE_JAVA_FORMAT.optionValue));
+          } catch (Exception e) {
+            cannotCreateFormatter(env, option, e);
+          } catch (LinkageError e) {
+            cannotCreateFormatter(env, option, e);
+          }
+          return GOOGLE_JAVA_FORMAT;
+        }
+      };
+
+  private static void cannotCreateFormatter(
+      ProcessingEnvironment env, String option, Throwable cause) {
+    env.getMessager().printMessage(Kind.WARNING, String.format(
+        "Cannot create formatter '%s' for option %s (%s); using %s",
+        option, OPTION, cause, GOOGLE_JAVA_FORMAT.optionValue));
+  }
+
+  private static SourceFormatter loadFormatter(String className) throws Exception {
+    Class<? extends SourceFormatter> cls = Class
+        .forName(className, true, SourceFormatting.class.getClassLoader())
+        .asSubclass(SourceFormatter.class);
+    return cls.newInstance();
+  }
+
+  private final String optionValue;
+  private final SourceFormatter formatter;
+
+  private SourceFormatting(String optionValue, SourceFormatter formatter) {
+    this.optionValue = optionValue;
+    this.formatter = formatter;
+  }
+
+  /** Returns the formatter to run over generated source. */
+  public SourceFormatter formatter() {
+    return formatter;
+  }
+
+  @Override
+  public String toString() {
+    return optionValue;
+  }
+}
@@ -10,6 +10,7 @@ public class StaticFeatureSet implements FeatureSet {
 
   @SuppressWarnings("rawtypes")
   private final ImmutableMap<Class<? extends Feature>, Feature<?>> featuresByType;
+  private final FeatureArray resolved = new FeatureArray();
 
   /**
    * Creates a feature set which will return {@code features} when {@link #get} is called for the
@@ -31,6 +32,14 @@ public class StaticFeatureSet implements FeatureSet {
    */
   @Override
   public <T extends Feature<T>> T get(FeatureType<T> featureType) {
+    T feature = resolved.get(featureType);
+    if (feature != null) {
+      return feature;
+    }
+    return resolved.put(featureType, resolve(featureType));
+  }
+
+  private <T extends Feature<T>> T resolve(FeatureType<T> featureType) {
     @SuppressWarnings("unchecked")
     T feature = (T) featuresByType.get(featureType.type());
     if (feature != null) {
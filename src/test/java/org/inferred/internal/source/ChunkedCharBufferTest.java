@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+@RunWith(JUnit4.class)
+public class ChunkedCharBufferTest {
+
+  @Rule public final ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void empty() {
+    ChunkedCharBuffer buffer = new ChunkedCharBuffer();
+    assertEquals("", buffer.toString());
+    assertEquals(0, buffer.length());
+    assertThat(buffer.chunks()).isEmpty();
+  }
+
+  @Test
+  public void appendAcrossChunkBoundaries() {
+    ChunkedCharBuffer buffer = new ChunkedCharBuffer();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      String text = "line " + i + ";\n";
+      buffer.append(text);
+      buffer.append('!');
+      expected.append(text).append('!');
+    }
+    assertEquals(expected.toString(), buffer.toString());
+    assertEquals(expected.length(), buffer.length());
+    assertEquals(expected.charAt(12345), buffer.charAt(12345));
+    assertThat(buffer.chunks().size()).isGreaterThan(1);
+    assertEquals(expected.toString(), Joiner.on("").join(buffer.chunks()));
+  }
+
+  @Test
+  public void appendSubSequence() {
+    ChunkedCharBuffer buffer = new ChunkedCharBuffer();
+    buffer.append(new StringBuilder("abcdef"), 1, 4);
+    assertEquals("bcd", buffer.toString());
+  }
+
+  @Test
+  public void writeTo() throws IOException {
+    ChunkedCharBuffer buffer = ChunkedCharBuffer.pooled();
+    String text = Strings.repeat("0123456789", 3 * ChunkedCharBuffer.CHUNK_SIZE / 10);
+    buffer.append(text);
+    StringWriter writer = new StringWriter();
+    buffer.writeTo(writer);
+    StringBuilder builder = new StringBuilder();
+    buffer.writeTo(builder);
+    assertEquals(text, writer.toString());
+    assertEquals(text, builder.toString());
+    buffer.release();
+  }
+
+  @Test
+  public void toStringReflectsLaterAppends() {
+    ChunkedCharBuffer buffer = new ChunkedCharBuffer();
+    buffer.append("foo");
+    assertEquals("foo", buffer.toString());
+    buffer.append("bar");
+    assertEquals("foobar", buffer.toString());
+  }
+
+  @Test
+  public void pooledBufferIsUsableAfterAnotherIsReleased() {
+    ChunkedCharBuffer first = ChunkedCharBuffer.pooled();
+    first.append(Strings.repeat("x", 2 * ChunkedCharBuffer.CHUNK_SIZE));
+    first.release();
+    ChunkedCharBuffer second = ChunkedCharBuffer.pooled();
+    second.append("hello");
+    assertEquals("hello", second.toString());
+    second.release();
+  }
+
+  @Test
+  public void releasedBufferRejectsUse() {
+    ChunkedCharBuffer buffer = ChunkedCharBuffer.pooled();
+    buffer.append("hello");
+    buffer.release();
+    thrown.expect(IllegalStateException.class);
+    buffer.append("world");
+  }
+}
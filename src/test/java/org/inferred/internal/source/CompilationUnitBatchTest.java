@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.inferred.internal.testing.integration.ModelRule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CompilationUnitBatchTest {
+
+  @Rule public final ModelRule model = new ModelRule();
+  @Mock private Filer filer;
+  private final List<StringWriter> sources = new ArrayList<StringWriter>();
+  private TypeElement originatingElement;
+
+  @Before
+  public void setup() {
+    originatingElement = model.newType("package com.example; public class Foo { }");
+  }
+
+  @Test
+  public void writesFormattedUnitsInOrder() throws IOException {
+    CompilationUnitBatch batch = new CompilationUnitBatch(filer, 4);
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 10; i++) {
+      CompilationUnitBuilder unit = newUnit("Bar" + i);
+      unit.addLine("public class Bar%s {", i)
+          .addLine("int x;")
+          .addLine("}");
+      expected.add(unit.toString());
+      batch.add(unit, originatingElement);
+    }
+    batch.writeAll();
+
+    InOrder order = inOrder(filer);
+    for (int i = 0; i < 10; i++) {
+      order.verify(filer).createSourceFile(eq("com.example.Bar" + i), (Element[]) any());
+      assertEquals(expected.get(i), sources.get(i).toString());
+    }
+  }
+
+  private CompilationUnitBuilder newUnit(String simpleName) {
+    try {
+      JavaFileObject sourceFile = mock(JavaFileObject.class);
+      StringWriter source = new StringWriter();
+      sources.add(source);
+      when(sourceFile.openWriter()).thenReturn(source);
+      when(filer.createSourceFile(eq("com.example." + simpleName), (Element[]) any()))
+          .thenReturn(sourceFile);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return new CompilationUnitBuilder(
+        model.environment(),
+        QualifiedName.of("com.example", simpleName),
+        ImmutableSet.<QualifiedName>of());
+  }
+}
@@ -21,11 +21,14 @@ import static javax.lang.model.util.ElementFilter.fieldsIn;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
+import org.inferred.internal.source.feature.SourceFormatting;
 import org.inferred.internal.testing.integration.ModelRule;
 import org.junit.Before;
 import org.junit.Rule;
@@ -41,11 +44,13 @@ import java.io.StringWriter;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeKind;
+import javax.tools.Diagnostic.Kind;
 import javax.tools.JavaFileObject;
 
 /** Tests for {@link CompilationUnitBuilder}. */
@@ -205,6 +210,114 @@ public class CompilationUnitBuilderTest {
     source.addLine("%s", errorType);
   }
 
+  @Test
+  public void testWriteTo_filer() throws IOException {
+    CompilationUnitBuilder unit = newSourceWriter("com.example", "Bar");
+    unit.addLine("public class Bar {")
+        .addLine("  %s counter;", AtomicLong.class)
+        .addLine("}");
+    String expected = unit.toString();
+    unit.writeTo(filer, originatingElement);
+    assertEquals(expected, source.toString());
+    assertThat(source.toString()).contains("import java.util.concurrent.atomic.AtomicLong;\n");
+  }
+
+  @Test
+  public void testFormatterOption_none() {
+    ProcessingEnvironment environment = Mockito.spy(model.environment());
+    doReturn(ImmutableMap.of(SourceFormatting.OPTION, "none")).when(environment).getOptions();
+    CompilationUnitBuilder source = new CompilationUnitBuilder(
+        environment, QualifiedName.of("com.example", "Bar"), ImmutableSet.<QualifiedName>of());
+    source.addLine("public class Bar {").addLine("int x;").addLine("}");
+    assertThat(source.toString()).endsWith("public class Bar {\nint x;\n}\n");
+  }
+
+  @Test
+  public void testFormatterOption_reindent() {
+    ProcessingEnvironment environment = Mockito.spy(model.environment());
+    doReturn(ImmutableMap.of(SourceFormatting.OPTION, "reindent"))
+        .when(environment).getOptions();
+    CompilationUnitBuilder source = new CompilationUnitBuilder(
+        environment, QualifiedName.of("com.example", "Bar"), ImmutableSet.<QualifiedName>of());
+    source.addLine("public class Bar {").addLine("int x;").addLine("}");
+    assertThat(source.toString()).endsWith("public class Bar {\n  int x;\n}\n");
+  }
+
+  @Test
+  public void testFormatterOption_className() {
+    ProcessingEnvironment environment = Mockito.spy(model.environment());
+    doReturn(ImmutableMap.of(SourceFormatting.OPTION, UpperCaseFormatter.class.getName()))
+        .when(environment).getOptions();
+    CompilationUnitBuilder source = new CompilationUnitBuilder(
+        environment, QualifiedName.of("com.example", "Bar"), ImmutableSet.<QualifiedName>of());
+    source.addLine("public class Bar {").addLine("int x;").addLine("}");
+    assertThat(source.toString()).endsWith("PUBLIC CLASS BAR {\nINT X;\n}\n");
+  }
+
+  @Test
+  public void testFormatterOption_unknownClassName() {
+    ProcessingEnvironment environment = Mockito.spy(model.environment());
+    doReturn(ImmutableMap.of(SourceFormatting.OPTION, "com.example.NoSuchFormatter"))
+        .when(environment).getOptions();
+    Messager messager = Mockito.mock(Messager.class);
+    doReturn(messager).when(environment).getMessager();
+    new CompilationUnitBuilder(
+        environment, QualifiedName.of("com.example", "Bar"), ImmutableSet.<QualifiedName>of())
+        .feature(SourceFormatting.SOURCE_FORMATTING);
+    verify(messager).printMessage(Kind.WARNING, "Unrecognized value 'com.example.NoSuchFormatter'"
+        + " for option org.inferred.source.formatter; using google-java-format");
+  }
+
+  /** A formatter selected by class name in {@link #testFormatterOption_className()}. */
+  public static class UpperCaseFormatter implements SourceFormatter {
+    @Override
+    public String formatSource(String source) {
+      return source.toUpperCase();
+    }
+  }
+
+  @Test
+  public void testTypesGeneratedEarlierInRoundAreNotImported() {
+    PackageMemberIndex.startRound();
+    try {
+      ProcessingEnvironment environment = model.environment();
+      new CompilationUnitBuilder(
+          environment, QualifiedName.of("com.example", "List"), ImmutableSet.<QualifiedName>of());
+      CompilationUnitBuilder source = new CompilationUnitBuilder(
+          environment, QualifiedName.of("com.example", "Bar"), ImmutableSet.<QualifiedName>of());
+      source.addLine("class Bar {")
+          .addLine("  %s a;", QualifiedName.of("java.util", "List"))
+          .addLine("  %s b;", QualifiedName.of("com.example", "List"))
+          .addLine("}");
+      assertThat(source.toString()).doesNotContain("import");
+      assertThat(source.toString()).contains("java.util.List a;");
+      assertThat(source.toString()).contains(" List b;");
+    } finally {
+      PackageMemberIndex.endRound();
+    }
+  }
+
+  @Test
+  public void testTypesGeneratedLaterInRoundAreNotSeen() {
+    PackageMemberIndex.startRound();
+    try {
+      ProcessingEnvironment environment = model.environment();
+      CompilationUnitBuilder source = new CompilationUnitBuilder(
+          environment, QualifiedName.of("com.example", "Bar"), ImmutableSet.<QualifiedName>of());
+      source.addLine("class Bar {")
+          .addLine("  %s a;", QualifiedName.of("java.util", "List"));
+      new CompilationUnitBuilder(
+          environment, QualifiedName.of("com.example", "List"), ImmutableSet.<QualifiedName>of());
+      source.addLine("  %s b;", QualifiedName.of("com.example", "List"))
+          .addLine("}");
+      assertThat(source.toString()).contains("import java.util.List;");
+      assertThat(source.toString()).contains(" List a;");
+      assertThat(source.toString()).contains("com.example.List b;");
+    } finally {
+      PackageMemberIndex.endRound();
+    }
+  }
+
   private CompilationUnitBuilder newSourceWriter(String pkg, String simpleName) {
     ProcessingEnvironment environment = Mockito.spy(model.environment());
     doReturn(filer).when(environment).getFiler();
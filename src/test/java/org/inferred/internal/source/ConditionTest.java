@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static org.inferred.internal.source.Condition.and;
+import static org.inferred.internal.source.Condition.equal;
+import static org.inferred.internal.source.Condition.greaterThan;
+import static org.inferred.internal.source.Condition.instanceOf;
+import static org.inferred.internal.source.Condition.not;
+import static org.inferred.internal.source.Condition.notEqual;
+import static org.inferred.internal.source.Condition.or;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ConditionTest {
+
+  @Test
+  public void testEqualityNegatesOperator() {
+    assertEquals("foo != null", render(not(equal("foo", "null"))));
+    assertEquals("foo == null", render(not(notEqual("foo", "null"))));
+  }
+
+  @Test
+  public void testRelationalNegationIsBracketed() {
+    assertEquals("!(foo > 0)", render(not(greaterThan("foo", "0"))));
+  }
+
+  @Test
+  public void testInstanceOfNegationIsBracketed() {
+    assertEquals("!(foo instanceof String)", render(not(instanceOf("foo", String.class))));
+  }
+
+  @Test
+  public void testDoubleNegationCancels() {
+    Condition condition = instanceOf("foo", String.class);
+    assertEquals(condition, not(not(condition)));
+    assertEquals("foo instanceof String", render(not(not(condition))));
+  }
+
+  @Test
+  public void testJunctionsOnlyBracketedWhenNeeded() {
+    assertEquals("a && b || c", render(or(and("a", "b"), "c")));
+    assertEquals("(a || b) && c", render(and(or("a", "b"), "c")));
+    assertEquals("!(a && b)", render(not(and("a", "b"))));
+    assertEquals("a == null && b != null",
+        render(and(equal("a", "null"), notEqual("b", "null"))));
+  }
+
+  @Test
+  public void testRawStrings() {
+    assertEquals("!foo.isEmpty()", render(not("foo.isEmpty()")));
+    assertEquals("foo.isEmpty()", render(not("!foo.isEmpty()")));
+    assertEquals("!(!a || b)", render(not("!a || b")));
+    assertEquals("!(foo > 0)", render(not("foo > 0")));
+    assertEquals("(a || b) && c", render(and("a || b", "c")));
+  }
+
+  @Test
+  public void testRawExcerptNegatedByRendering() {
+    Excerpt excerpt = Excerpts.add("foo.%s()", "isEmpty");
+    assertEquals("!foo.isEmpty()", render(not(excerpt)));
+    assertEquals("foo.isEmpty()", render(not(not(excerpt))));
+  }
+
+  @Test
+  public void testPreconditionUsesStructuredNegation() {
+    String source = SourceStringBuilder.simple()
+        .add(PreconditionExcerpts.checkArgument(notEqual("foo", "0"), "foo must not be zero"))
+        .toString();
+    assertEquals("if (foo == 0) {\n"
+        + "  throw new IllegalArgumentException(\"foo must not be zero\");\n"
+        + "}\n", source);
+  }
+
+  private static String render(Condition condition) {
+    return SourceStringBuilder.simple().add("%s", condition).toString();
+  }
+}
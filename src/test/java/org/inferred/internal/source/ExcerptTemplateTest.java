@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static org.inferred.internal.source.ExcerptTemplate.hole;
+import static org.junit.Assert.assertEquals;
+
+import org.inferred.internal.source.feature.SourceLevel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+@RunWith(JUnit4.class)
+public class ExcerptTemplateTest {
+
+  @Rule public final ExpectedException thrown = ExpectedException.none();
+
+  private static final ExcerptTemplate GETTER = ExcerptTemplate.compile(Excerpts.add(
+      "public %s %s() {%n  return %s;%n}%n", hole(0), hole(1), hole(2)));
+
+  @Test
+  public void testReplayMatchesDirectRendering() {
+    assertEquals(
+        render(Excerpts.add("public %s %s() {%n  return %s;%n}%n", AtomicLong.class, "getA", "a"),
+            SourceLevel.JAVA_6),
+        render(GETTER.bind(AtomicLong.class, "getA", "a"), SourceLevel.JAVA_6));
+    assertEquals("public List getB() {\n  return b;\n}\n",
+        render(GETTER.bind(List.class, "getB", "b"), SourceLevel.JAVA_6));
+  }
+
+  @Test
+  public void testNestedExcerptsAreFlattened() {
+    ExcerptTemplate template = ExcerptTemplate.compile(Excerpts.add(
+        "%s = %s;", hole(0), Excerpts.add("new %s(%s)", AtomicLong.class, hole(1))));
+    assertEquals("x = new AtomicLong(5);",
+        render(template.bind("x", 5), SourceLevel.JAVA_6));
+  }
+
+  @Test
+  public void testFeatureDependentBranches() {
+    ParameterizedType type = QualifiedName.of("java.util", "ArrayList").withParameters("E");
+    ExcerptTemplate template = ExcerptTemplate.compile(
+        Excerpts.add("%s = %s();", hole(0), type.constructor()));
+    assertEquals("x = new ArrayList<E>();", render(template.bind("x"), SourceLevel.JAVA_6));
+    assertEquals("y = new ArrayList<>();", render(template.bind("y"), SourceLevel.JAVA_7));
+    assertEquals("z = new ArrayList<E>();", render(template.bind("z"), SourceLevel.JAVA_6));
+  }
+
+  @Test
+  public void testUnparsedFormatString() {
+    ExcerptTemplate template = ExcerptTemplate.compile(Excerpts.add("%s: %d", hole(0), 42));
+    assertEquals("answer: 42", render(template.bind("answer"), SourceLevel.JAVA_6));
+  }
+
+  @Test
+  public void testHoleInUnparsedFormatString() {
+    ExcerptTemplate template = ExcerptTemplate.compile(Excerpts.add("%s: %03d", "n", hole(0)));
+    assertEquals("n: 007", render(template.bind(7), SourceLevel.JAVA_6));
+  }
+
+  @Test
+  public void testTooFewArguments() {
+    thrown.expect(IllegalArgumentException.class);
+    GETTER.bind("int", "getA");
+  }
+
+  @Test
+  public void testCheckArgument() {
+    ExcerptTemplate template = ExcerptTemplate.compile(PreconditionExcerpts.checkArgument(
+        hole(0), "value must be non-negative (got %s)", hole(1)));
+    assertEquals(
+        render(PreconditionExcerpts.checkArgument(
+            "age >= 0", "value must be non-negative (got %s)", "age"), SourceLevel.JAVA_6),
+        render(template.bind("age >= 0", "age"), SourceLevel.JAVA_6));
+    assertEquals(
+        "if (!(count >= 0)) {\n"
+            + "  throw new IllegalArgumentException(\"value must be non-negative (got \" + count"
+            + " + \")\");\n}\n",
+        render(template.bind("count >= 0", "count"), SourceLevel.JAVA_6));
+  }
+
+  @Test
+  public void testNegatedHole() {
+    ExcerptTemplate template = ExcerptTemplate.compile(
+        Excerpts.add("if (%s) {}", Condition.not(hole(0))));
+    assertEquals("if (!(a || b)) {}", render(template.bind("a || b"), SourceLevel.JAVA_6));
+    assertEquals("if (!a) {}", render(template.bind("a"), SourceLevel.JAVA_6));
+  }
+
+  private static String render(Excerpt excerpt, SourceLevel sourceLevel) {
+    return SourceStringBuilder.simple(sourceLevel).add(excerpt).toString();
+  }
+}
@@ -15,16 +15,21 @@
  */
 package org.inferred.internal.source;
 
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.truth.Truth.assertThat;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.io.Files;
+
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
@@ -33,6 +38,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Answers;
 import org.mockito.Mock;
@@ -41,6 +47,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
@@ -58,6 +65,7 @@ public class FilerUtilsTest {
 
   @Rule public final ModelRule model = new ModelRule();
   @Rule public final ExpectedException thrown = ExpectedException.none();
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
   @Mock private Filer filer;
   @Mock private JavaFileObject sourceFile;
   private final StringWriter source = new StringWriter();
@@ -112,6 +120,69 @@ public class FilerUtilsTest {
     FilerUtils.writeCompilationUnit(filer, CLASS_TO_WRITE, originatingElement, "Hello!");
   }
 
+  @Test
+  public void testSkipUnchanged_restoresTimestampOfIdenticalFile() throws IOException {
+    File file = temporaryFolder.newFile("bar.java");
+    Files.write("Hello!", file, UTF_8);
+    assertTrue(file.setLastModified(1000000000L));
+    backSourceFileWith(file);
+
+    FilerUtils.write(filer, CLASS_TO_WRITE, originatingElement, true, content("Hello!"));
+
+    assertEquals("Hello!", Files.toString(file, UTF_8));
+    assertEquals(1000000000L, file.lastModified());
+    assertEquals(0, FilerUtils.writeCounts(filer).written());
+    assertEquals(1, FilerUtils.writeCounts(filer).unchanged());
+  }
+
+  @Test
+  public void testSkipUnchanged_updatesChangedFile() throws IOException {
+    File file = temporaryFolder.newFile("bar.java");
+    Files.write("Goodbye!", file, UTF_8);
+    assertTrue(file.setLastModified(1000000000L));
+    backSourceFileWith(file);
+
+    FilerUtils.write(filer, CLASS_TO_WRITE, originatingElement, true, content("Hello!"));
+
+    assertEquals("Hello!", Files.toString(file, UTF_8));
+    assertThat(file.lastModified()).isNotEqualTo(1000000000L);
+    assertEquals(1, FilerUtils.writeCounts(filer).written());
+    assertEquals(0, FilerUtils.writeCounts(filer).unchanged());
+  }
+
+  @Test
+  public void testSkipUnchanged_appliesToStringOverload() throws IOException {
+    File file = temporaryFolder.newFile("bar.java");
+    Files.write("Hello!", file, UTF_8);
+    assertTrue(file.setLastModified(1000000000L));
+    backSourceFileWith(file);
+    FilerUtils.recordSkipUnchanged(filer, true);
+
+    FilerUtils.writeCompilationUnit(filer, CLASS_TO_WRITE, originatingElement, "Hello!");
+
+    assertEquals(1000000000L, file.lastModified());
+    assertEquals(1, FilerUtils.writeCounts(filer).unchanged());
+  }
+
+  private void backSourceFileWith(final File file) throws IOException {
+    when(sourceFile.toUri()).thenReturn(file.toURI());
+    when(sourceFile.openWriter()).thenAnswer(new Answer<Writer>() {
+      @Override
+      public Writer answer(InvocationOnMock invocation) throws IOException {
+        return Files.newWriter(file, UTF_8);
+      }
+    });
+  }
+
+  private static FilerUtils.Content content(final String source) {
+    return new FilerUtils.Content() {
+      @Override
+      void writeTo(Writer writer) throws IOException {
+        writer.append(source);
+      }
+    };
+  }
+
   private static Matcher<Throwable> suppressed(Matcher<?> matcher) {
     return new BaseMatcher<Throwable>() {
 
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.MissingFormatArgumentException;
+
+@RunWith(JUnit4.class)
+public class FormatTemplateTest {
+
+  @Rule public final ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void literalOnly() {
+    assertFormatsLikeString("public class Foo {");
+  }
+
+  @Test
+  public void ordinarySlots() {
+    assertFormatsLikeString("%s %s = %s;", "int", "foo", 3);
+  }
+
+  @Test
+  public void explicitIndices() {
+    assertFormatsLikeString("%2$s, %1$s, %2$s", "a", "b");
+  }
+
+  @Test
+  public void explicitIndicesDoNotConsumeOrdinarySlots() {
+    assertFormatsLikeString("%2$s %s %s", "a", "b");
+  }
+
+  @Test
+  public void escapes() {
+    assertFormatsLikeString("100%% %s%n", "done");
+  }
+
+  @Test
+  public void nullArgument() {
+    assertFormatsLikeString("x = %s", (Object) null);
+  }
+
+  @Test
+  public void extraArgumentsIgnored() {
+    assertFormatsLikeString("%s", "a", "b");
+  }
+
+  @Test
+  public void unsupportedConversionsFallBack() {
+    assertFormatsLikeString("%s %d", "a", 100);
+    assertFormatsLikeString("%-5s|", "a");
+    assertFormatsLikeString("%S", "a");
+    assertFormatsLikeString("%s %<s", "a");
+  }
+
+  @Test
+  public void missingArgument() {
+    thrown.expect(MissingFormatArgumentException.class);
+    FormatTemplate.of("%s %s").appendTo(new StringBuilder(), "a");
+  }
+
+  @Test
+  public void templatesAreCached() {
+    assertSame(FormatTemplate.of("%s = %s;"), FormatTemplate.of("%s = %s;"));
+  }
+
+  private static void assertFormatsLikeString(String fmt, Object... args) {
+    StringBuilder destination = new StringBuilder();
+    FormatTemplate.of(fmt).appendTo(destination, args);
+    assertEquals(String.format(fmt, args), destination.toString());
+  }
+}
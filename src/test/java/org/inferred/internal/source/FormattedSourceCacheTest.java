@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.tools.Diagnostic.Kind;
+
+@RunWith(JUnit4.class)
+public class FormattedSourceCacheTest {
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  /** Upper-cases its input, recording every call. */
+  private static class CountingFormatter implements SourceFormatter {
+    final List<String> calls = new ArrayList<String>();
+
+    @Override
+    public String formatSource(String source) {
+      calls.add(source);
+      return source.toUpperCase();
+    }
+  }
+
+  @Test
+  public void secondLookupIsAHit() throws Exception {
+    FormattedSourceCache cache = new FormattedSourceCache(folder.getRoot(), 1024 * 1024);
+    CountingFormatter formatter = new CountingFormatter();
+    SourceFormatter cachingFormatter = cache.wrap(formatter);
+
+    assertEquals("CLASS FOO {}", cachingFormatter.formatSource("class Foo {}"));
+    assertEquals("CLASS FOO {}", cachingFormatter.formatSource("class Foo {}"));
+    assertEquals("CLASS BAR {}", cachingFormatter.formatSource("class Bar {}"));
+
+    assertThat(formatter.calls).containsExactly("class Foo {}", "class Bar {}").inOrder();
+    assertEquals(1, cache.hitCount());
+    assertEquals(2, cache.missCount());
+  }
+
+  @Test
+  public void entriesSurviveANewCacheInstance() throws Exception {
+    CountingFormatter formatter = new CountingFormatter();
+    new FormattedSourceCache(folder.getRoot(), 1024 * 1024)
+        .wrap(formatter)
+        .formatSource("class Foo {}");
+    FormattedSourceCache cache = new FormattedSourceCache(folder.getRoot(), 1024 * 1024);
+    assertEquals("CLASS FOO {}", cache.wrap(formatter).formatSource("class Foo {}"));
+    assertEquals(1, formatter.calls.size());
+    assertEquals(1, cache.hitCount());
+  }
+
+  @Test
+  public void evictsWhenOverSizeCap() throws Exception {
+    FormattedSourceCache cache = new FormattedSourceCache(folder.getRoot(), 10000);
+    SourceFormatter cachingFormatter = cache.wrap(new CountingFormatter());
+    for (int i = 0; i < 20; i++) {
+      cachingFormatter.formatSource(i + Strings.repeat("x", 1000));
+    }
+    long totalSize = 0;
+    for (File shard : folder.getRoot().listFiles()) {
+      for (File entry : shard.listFiles()) {
+        totalSize += entry.length();
+      }
+    }
+    assertThat(totalSize).isAtMost(10000L);
+  }
+
+  @Test
+  public void staleTemporaryFilesAreDeleted() throws Exception {
+    File shard = folder.newFolder("ab");
+    File stale = new File(shard, "tmp-stale.tmp");
+    File fresh = new File(shard, "tmp-fresh.tmp");
+    assertTrue(stale.createNewFile());
+    assertTrue(fresh.createNewFile());
+    stale.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+    new FormattedSourceCache(folder.getRoot(), 1024 * 1024)
+        .wrap(new CountingFormatter())
+        .formatSource("class Foo {}");
+    assertFalse(stale.exists());
+    assertTrue(fresh.exists());
+  }
+
+  @Test
+  public void invalidMaxSizeIsReportedOnceAndDefaulted() {
+    ProcessingEnvironment env = mock(ProcessingEnvironment.class);
+    Messager messager = mock(Messager.class);
+    when(env.getMessager()).thenReturn(messager);
+    when(env.getOptions()).thenReturn(ImmutableMap.of(
+        FormattedSourceCache.DIRECTORY_OPTION, folder.getRoot().getPath(),
+        FormattedSourceCache.MAX_SIZE_OPTION, "lots"));
+    FormattedSourceCache cache = FormattedSourceCache.forEnvironment(env).get();
+    assertSame(cache, FormattedSourceCache.forEnvironment(env).get());
+    verify(messager).printMessage(eq(Kind.WARNING), anyString());
+  }
+
+  @Test
+  public void formatterVersionIdentifiesCode() {
+    String version = SourceFormatters.versionOf(new CountingFormatter());
+    assertThat(version).startsWith(CountingFormatter.class.getName() + ":");
+    assertThat(version).doesNotContain("null");
+    assertEquals(version, SourceFormatters.versionOf(new CountingFormatter()));
+  }
+}
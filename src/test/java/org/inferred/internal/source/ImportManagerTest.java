@@ -30,6 +30,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -159,6 +160,51 @@ public class ImportManagerTest {
     assertThat(manager.getClassImports()).containsExactly("java.util.Map");
   }
 
+  @Test
+  public void testRepeatedShorteningIsMemoized() {
+    ImportManager manager = new ImportManager.Builder().build();
+    ClassTypeImpl listType = newTopLevelClass("java.util.List");
+    assertEquals("List", manager.shorten(listType));
+    assertEquals("List", manager.shorten(listType));
+    assertEquals("Map", manager.shorten(QualifiedName.of("java.util", "Map")));
+    assertEquals("Map", manager.shorten(QualifiedName.of("java.util", "Map")));
+    assertEquals("AtomicLong", manager.shorten(java.util.concurrent.atomic.AtomicLong.class));
+    assertEquals("AtomicLong", manager.shorten(java.util.concurrent.atomic.AtomicLong.class));
+    assertEquals(3, manager.getMemoHitCount());
+    assertEquals(3, manager.getMemoMissCount());
+    assertThat(manager.getClassImports()).containsExactly(
+        "java.util.List", "java.util.Map", "java.util.concurrent.atomic.AtomicLong").inOrder();
+  }
+
+  @Test
+  public void testMemoizedJavaLangNameQualifiedAfterConflictingImport() {
+    ImportManager manager = new ImportManager.Builder().build();
+    assertEquals("String", manager.shorten(QualifiedName.of("java.lang", "String")));
+    assertEquals("String", manager.shorten(QualifiedName.of("org.example", "String")));
+    assertEquals("java.lang.String", manager.shorten(QualifiedName.of("java.lang", "String")));
+    assertThat(manager.getClassImports()).containsExactly("org.example.String");
+  }
+
+  @Test
+  public void testPackageMembersOnlyQueriedForReferencedNames() {
+    final List<String> queries = new ArrayList<String>();
+    ImportManager manager = new ImportManager.Builder()
+        .setPackageMembers(new ImportManager.PackageMembers() {
+          @Override
+          public QualifiedName get(String simpleName) {
+            queries.add(simpleName);
+            return simpleName.equals("List") ? QualifiedName.of("org.example", "List") : null;
+          }
+        })
+        .build();
+    assertEquals("java.util.List", manager.shorten(QualifiedName.of("java.util", "List")));
+    assertEquals("List", manager.shorten(QualifiedName.of("org.example", "List")));
+    assertEquals("Map", manager.shorten(QualifiedName.of("java.util", "Map")));
+    assertEquals("Map", manager.shorten(QualifiedName.of("java.util", "Map")));
+    assertThat(queries).containsExactly("List", "List", "Map").inOrder();
+    assertThat(manager.getClassImports()).containsExactly("java.util.Map");
+  }
+
   private static class OuterClass<T> {
     private class InnerClass { }
   }
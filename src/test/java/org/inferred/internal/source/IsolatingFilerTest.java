@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static javax.lang.model.util.ElementFilter.methodsIn;
+import static org.mockito.Mockito.verify;
+
+import org.inferred.internal.testing.integration.ModelRule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+
+/** Tests for {@link IsolatingFiler}. */
+@RunWith(MockitoJUnitRunner.class)
+public class IsolatingFilerTest {
+
+  @Rule public final ModelRule model = new ModelRule();
+  @Rule public final ExpectedException thrown = ExpectedException.none();
+  @Mock private Filer delegate;
+  private IsolatingFiler filer;
+  private TypeElement fooType;
+  private TypeElement barType;
+
+  @Before
+  public void setup() {
+    filer = new IsolatingFiler(delegate);
+    fooType = model.newType("package com.example; public class Foo { void method() {} }");
+    barType = model.newType("package com.example; public class Bar { }");
+  }
+
+  @Test
+  public void testSingleOriginatingElement() throws IOException {
+    filer.createSourceFile("com.example.Foo_Builder", fooType);
+    verify(delegate).createSourceFile("com.example.Foo_Builder", fooType);
+  }
+
+  @Test
+  public void testMemberOfCurrentType() throws IOException {
+    Element method = getOnlyElement(methodsIn(fooType.getEnclosedElements()));
+    filer.setCurrentType(fooType);
+    filer.createSourceFile("com.example.Foo_Builder", method);
+    verify(delegate).createSourceFile("com.example.Foo_Builder", method);
+  }
+
+  @Test
+  public void testNoOriginatingElement() throws IOException {
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("exactly one originating element for com.example.Foo_Builder");
+    filer.createSourceFile("com.example.Foo_Builder");
+  }
+
+  @Test
+  public void testMultipleOriginatingElements() throws IOException {
+    thrown.expect(IllegalStateException.class);
+    filer.createSourceFile("com.example.Foo_Builder", fooType, barType);
+  }
+
+  @Test
+  public void testOriginatingElementOutsideCurrentType() throws IOException {
+    filer.setCurrentType(fooType);
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("only generate com.example.Foo_Builder from com.example.Foo");
+    filer.createSourceFile("com.example.Foo_Builder", barType);
+  }
+}
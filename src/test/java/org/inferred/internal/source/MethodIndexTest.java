@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.inferred.internal.testing.integration.ModelRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+
+@RunWith(JUnit4.class)
+public class MethodIndexTest {
+
+  @Rule public final ModelRule model = new ModelRule();
+
+  @Test
+  public void testOverrides() {
+    TypeElement type = model.newType(
+        "package com.example;",
+        "public class DataType {",
+        "  @Override public boolean equals(Object o) { return false; }",
+        "  public void set(int i) { }",
+        "}");
+    Types types = model.typeUtils();
+    TypeMirror object = model.typeMirror(Object.class);
+    assertTrue(ModelUtils.overrides(type, types, "equals", object));
+    assertTrue(ModelUtils.overrides(type, types, "set", model.typeMirror(int.class)));
+    assertFalse(ModelUtils.overrides(type, types, "set", object));
+    assertFalse(ModelUtils.overrides(type, types, "hashCode"));
+  }
+
+  @Test
+  public void testIndicesOnlyKeptWithinRound() {
+    TypeElement type = model.newType(
+        "package com.example;",
+        "public class DataType { }");
+    Types types = model.typeUtils();
+    assertNotSame(MethodIndex.of(type, types), MethodIndex.of(type, types));
+    MethodIndex.startRound();
+    try {
+      assertSame(MethodIndex.of(type, types), MethodIndex.of(type, types));
+    } finally {
+      MethodIndex.endRound();
+    }
+    assertNotSame(MethodIndex.of(type, types), MethodIndex.of(type, types));
+  }
+
+  @Test
+  public void testIsInherited() {
+    TypeElement type = model.newType(
+        "package com.example;",
+        "public abstract class DataType implements Comparable<DataType> { }");
+    Types types = model.typeUtils();
+    assertTrue(ModelUtils.isInherited(type, types, "hashCode"));
+    assertTrue(ModelUtils.isInherited(type, types, "compareTo", type.asType()));
+    assertFalse(ModelUtils.isInherited(
+        type, types, "compareTo", model.typeMirror(String.class)));
+    assertFalse(ModelUtils.isInherited(type, types, "registerNatives"));
+  }
+
+  @Test
+  public void testAbstractMethods() {
+    TypeElement type = model.newType(
+        "package com.example;",
+        "public abstract class DataType",
+        "    extends java.util.AbstractList<String> implements Comparable<DataType> {",
+        "  @Override public abstract String toString();",
+        "  @Override public int size() { return 0; }",
+        "}");
+    List<String> names = new ArrayList<String>();
+    for (ExecutableElement method : ModelUtils.abstractMethods(type, model.typeUtils())) {
+      names.add(method.getSimpleName().toString());
+    }
+    assertEquals("[toString, get, compareTo]", names.toString());
+  }
+
+  @Test
+  public void testAbstractMethods_deepSuperclassAndInterface() {
+    TypeElement type = model.newType(
+        "package com.example;",
+        "public class DataType {",
+        "  public interface I { }",
+        "  public abstract static class Base { @Override public abstract String toString(); }",
+        "  public abstract static class A extends Base { }",
+        "  public abstract static class B extends A { }",
+        "  public abstract static class C extends B implements I { }",
+        "}");
+    TypeElement c = null;
+    for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+      if (nested.getSimpleName().contentEquals("C")) {
+        c = nested;
+      }
+    }
+    List<String> names = new ArrayList<String>();
+    for (ExecutableElement method : ModelUtils.abstractMethods(c, model.typeUtils())) {
+      names.add(method.getSimpleName().toString());
+    }
+    assertEquals("[toString]", names.toString());
+  }
+}
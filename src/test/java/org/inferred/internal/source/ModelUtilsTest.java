@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.inferred.internal.source.ModelUtils.findAnnotationMirror;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.inferred.internal.testing.integration.ModelRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.TypeElement;
+
+@RunWith(JUnit4.class)
+public class ModelUtilsTest {
+
+  @Rule public final ModelRule model = new ModelRule();
+
+  @Test
+  public void testFindAnnotationMirror() {
+    TypeElement type = model.newType(
+        "package com.example;",
+        "@Deprecated @SuppressWarnings(\"unchecked\") public class DataType { }");
+    AnnotationMirror suppressWarnings = findAnnotationMirror(type, SuppressWarnings.class).get();
+    assertEquals("java.lang.SuppressWarnings", suppressWarnings.getAnnotationType().toString());
+    assertSame(suppressWarnings, findAnnotationMirror(type, "java.lang.SuppressWarnings").get());
+    assertSame(suppressWarnings, findAnnotationMirror(type, SuppressWarnings.class).get());
+    assertThat(findAnnotationMirror(type, Deprecated.class).isPresent()).isTrue();
+    assertFalse(findAnnotationMirror(type, Override.class).isPresent());
+  }
+
+  @Test
+  public void testFindAnnotationMirror_inRound() {
+    TypeElement type = model.newType(
+        "package com.example;",
+        "@Deprecated @SuppressWarnings(\"unchecked\") public class DataType { }");
+    AnnotationMirror suppressWarnings = findAnnotationMirror(type, SuppressWarnings.class).get();
+    AnnotationMirrorIndex.startRound();
+    try {
+      assertSame(suppressWarnings, findAnnotationMirror(type, SuppressWarnings.class).get());
+      assertSame(suppressWarnings, findAnnotationMirror(type, "java.lang.SuppressWarnings").get());
+      assertFalse(findAnnotationMirror(type, Override.class).isPresent());
+    } finally {
+      AnnotationMirrorIndex.endRound();
+    }
+  }
+
+  @Test
+  public void testFindProperties() {
+    TypeElement type = model.newType(
+        "package com.example;",
+        "@" + Named.class.getCanonicalName() + "(name = \"a\", alias = \"b\")",
+        "public class DataType { }");
+    AnnotationMirror named = findAnnotationMirror(type, Named.class).get();
+    ImmutableMap<String, AnnotationValue> properties =
+        ModelUtils.findProperties(named, "name", "index", "alias");
+    assertThat(properties.keySet()).containsExactly("name", "alias");
+    assertEquals("a", properties.get("name").getValue());
+    assertEquals("b", properties.get("alias").getValue());
+  }
+
+  public @interface Named {
+    String name();
+    String alias() default "";
+    int index() default 0;
+  }
+}
@@ -18,6 +18,7 @@ package org.inferred.internal.source;
 import static org.inferred.internal.testing.unit.ClassTypeImpl.newTopLevelClass;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.inferred.internal.source.feature.SourceLevel;
@@ -107,6 +108,17 @@ public class ParameterizedTypeTest {
         prettyPrint(type.declaration(), SourceLevel.JAVA_7));
   }
 
+  @Test
+  public void testDerivedFormsAreCached() {
+    GenericElement myType = new GenericElement.Builder(MY_TYPE_NAME).addTypeParameter("V").build();
+    ParameterizedType type = ParameterizedType.from(myType);
+    assertSame(type.constructor(), type.constructor());
+    assertSame(type.declaration(), type.declaration());
+    assertSame(type.typeParameters(), type.typeParameters());
+    assertSame(type.withWildcards(), type.withWildcards());
+    assertSame(type.toString(), type.toString());
+  }
+
   private static String prettyPrint(Excerpt type, SourceLevel sourceLevel) {
     return SourceStringBuilder.simple(sourceLevel).add(type).toString();
   }
@@ -1,9 +1,14 @@
 package org.inferred.internal.source;
 
+import static com.google.common.truth.Truth.assertThat;
 import static org.inferred.internal.source.feature.SourceLevel.JAVA_7;
 import static org.junit.Assert.assertEquals;
 
+import org.inferred.internal.source.feature.FeatureSet;
 import org.inferred.internal.source.feature.GuavaLibrary;
+import org.inferred.internal.source.feature.StaticFeatureSet;
+import org.inferred.internal.testing.integration.ModelRule;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -11,6 +16,8 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class PreconditionExcerptsTests {
 
+  @Rule public final ModelRule model = new ModelRule();
+
   @Test
   public void testCheckNotNull_guava() {
     String source = SourceStringBuilder.simple(GuavaLibrary.AVAILABLE)
@@ -63,6 +70,15 @@ public class PreconditionExcerptsTests {
     assertEquals("this.foo = Objects.requireNonNull(foo);\n", source);
   }
 
+  @Test
+  public void testCheckNotNull_privateUseCharacters() {
+    String source = SourceStringBuilder.simple()
+        .add(PreconditionExcerpts.checkNotNull("\uE0007\uE001"))
+        .toString();
+    assertEquals(
+        "if (\uE0007\uE001 == null) {\n  throw new NullPointerException();\n}\n", source);
+  }
+
   @Test
   public void testCheckArgument_guava_simpleMessage() {
     String source = SourceStringBuilder.simple(GuavaLibrary.AVAILABLE)
@@ -71,6 +87,19 @@ public class PreconditionExcerptsTests {
     assertEquals("Preconditions.checkArgument(foo != 0, \"foo must not be zero\");\n", source);
   }
 
+  @Test
+  public void testCheckArgument_guava_typeMirrorInCondition() {
+    Excerpt condition = Excerpts.add("foo instanceof %s", model.typeMirror("java.util.List"));
+    String source = SourceStringBuilder.simple(GuavaLibrary.AVAILABLE)
+        .add(PreconditionExcerpts.checkArgument(condition, "foo must be a list"))
+        .add(PreconditionExcerpts.checkArgument(condition, "foo must be a list"))
+        .toString();
+    assertEquals(
+        "Preconditions.checkArgument(foo instanceof List, \"foo must be a list\");\n"
+            + "Preconditions.checkArgument(foo instanceof List, \"foo must be a list\");\n",
+        source);
+  }
+
   @Test
   public void testCheckArgument_guava_singleParameter() {
     String source = SourceStringBuilder.simple(GuavaLibrary.AVAILABLE)
@@ -274,4 +303,20 @@ public class PreconditionExcerptsTests {
                 + "\"foo must not be zero\");\n}\n",
         source);
   }
+
+  @Test
+  public void testCachedRenderingShortensTypesPerUnit() {
+    FeatureSet features = new StaticFeatureSet(GuavaLibrary.AVAILABLE);
+    Excerpt check = PreconditionExcerpts.checkState("foo != 0", "foo is %s", "foo");
+    ImportManager conflicting = new ImportManager.Builder()
+        .addImplicitImport(QualifiedName.of("com.example", "Preconditions"))
+        .build();
+    String first = new SourceStringBuilder(conflicting, features).add(check).toString();
+    ImportManager plain = new ImportManager.Builder().build();
+    String second = new SourceStringBuilder(plain, features).add(check).toString();
+    assertEquals("com.google.common.base.Preconditions.checkState(foo != 0, \"foo is %s\", foo);\n",
+        first);
+    assertEquals("Preconditions.checkState(foo != 0, \"foo is %s\", foo);\n", second);
+    assertThat(plain.getClassImports()).containsExactly("com.google.common.base.Preconditions");
+  }
 }
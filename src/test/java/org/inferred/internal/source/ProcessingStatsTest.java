@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.truth.Truth.assertThat;
+import static org.inferred.internal.testing.unit.ClassTypeImpl.newTopLevelClass;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import javax.annotation.processing.Messager;
+import javax.tools.Diagnostic.Kind;
+
+@RunWith(JUnit4.class)
+public class ProcessingStatsTest {
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+  private final Messager messager = mock(Messager.class);
+
+  @Test
+  public void testDisabledByDefault() {
+    assertFalse(
+        ProcessingStats.forOptions(ImmutableMap.<String, String>of(), messager).isPresent());
+    StringWriter writer = new StringWriter();
+    assertSame(writer, ProcessingStats.countingWriter(writer));
+  }
+
+  @Test
+  public void testWritesAttributedToCurrentTypeAndRound() throws IOException {
+    ProcessingStats stats = enabled();
+    stats.startRound();
+    stats.startType(newTopLevelClass("com.example.Foo").asElement());
+    write(ProcessingStats.countingWriter(new StringWriter()), "class Foo {}");
+    stats.startType(newTopLevelClass("com.example.Bar").asElement());
+    write(ProcessingStats.countingWriter(new StringWriter()), "class Bar {}\n");
+    stats.endType();
+    stats.endType();
+    write(ProcessingStats.countingWriter(new StringWriter()), "x");
+    stats.endRound();
+
+    assertEquals(2, stats.types().size());
+    ProcessingStats.Sample bar = stats.types().get(0);
+    ProcessingStats.Sample foo = stats.types().get(1);
+    assertEquals("com.example.Bar", bar.name());
+    assertEquals(13, bar.characters());
+    assertEquals(1, bar.units());
+    assertEquals("com.example.Foo", foo.name());
+    assertEquals(12, foo.characters());
+    assertEquals(1, foo.units());
+    ProcessingStats.Sample round = stats.rounds().get(0);
+    assertEquals(26, round.characters());
+    assertEquals(3, round.units());
+
+    // Writes outside a round are not counted
+    StringWriter writer = new StringWriter();
+    assertSame(writer, ProcessingStats.countingWriter(writer));
+  }
+
+  @Test
+  public void testSummary() {
+    ProcessingStats stats = enabled();
+    stats.startRound();
+    stats.startType(newTopLevelClass("com.example.Foo").asElement());
+    stats.endType();
+    stats.endRound();
+    assertThat(stats.toJson()).contains("\"name\": \"round 1\", \"round\": 1");
+    assertThat(stats.toJson()).contains("\"name\": \"com.example.Foo\", \"round\": 1");
+    assertThat(stats.slowestTypesNote()).contains("com.example.Foo: ");
+  }
+
+  @Test
+  public void testUnchangedUnitsNotRecorded() throws IOException {
+    ProcessingStats stats = enabled();
+    stats.startRound();
+    Writer writer = ProcessingStats.countingWriter(new StringWriter());
+    writer.append("class Foo {}");
+    writer.close();
+    stats.endRound();
+    assertEquals(0, stats.rounds().get(0).characters());
+    assertEquals(0, stats.rounds().get(0).units());
+  }
+
+  @Test
+  public void testInvalidTopOptionWarnsAndUsesDefault() {
+    Optional<ProcessingStats> stats = ProcessingStats.forOptions(ImmutableMap.of(
+        ProcessingStats.OPTION, "true", ProcessingStats.TOP_OPTION, "ten"), messager);
+    assertTrue(stats.isPresent());
+    verify(messager).printMessage(Kind.WARNING,
+        "Unrecognized value 'ten' for option org.inferred.source.stats.top; using 10");
+  }
+
+  @Test
+  public void testSummaryWrittenToOutputOption() throws IOException {
+    File output = new File(temporaryFolder.getRoot(), "stats/summary.json");
+    ProcessingStats stats = ProcessingStats.forOptions(ImmutableMap.of(
+        ProcessingStats.OPTION, "true",
+        ProcessingStats.OUTPUT_OPTION, output.getPath()), messager).get();
+    stats.startRound();
+    stats.endRound();
+    stats.writeSummary();
+    assertEquals(stats.toJson(), Files.toString(output, UTF_8));
+  }
+
+  private ProcessingStats enabled() {
+    return ProcessingStats.forOptions(
+        ImmutableMap.of(ProcessingStats.OPTION, "true"), messager).get();
+  }
+
+  private static void write(Writer writer, String text) throws IOException {
+    writer.append(text);
+    writer.close();
+    ProcessingStats.recordUnit(writer);
+  }
+}
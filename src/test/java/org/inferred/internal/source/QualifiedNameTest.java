@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.testing.EqualsTester;
+
+import org.inferred.internal.testing.integration.ModelRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class QualifiedNameTest {
+
+  @Rule public final ModelRule model = new ModelRule();
+
+  @Test
+  public void testEqualNamesAreInterned() {
+    QualifiedName entry = QualifiedName.of("java.util", "Map", "Entry");
+    assertSame(entry, QualifiedName.of(Map.Entry.class));
+    assertSame(entry, QualifiedName.of(model.typeElement(Map.Entry.class)));
+    assertSame(entry, QualifiedName.of("java.util", "Map").nestedType("Entry"));
+    assertSame(QualifiedName.of(Map.class), entry.getEnclosingType());
+  }
+
+  @Test
+  public void testToString() {
+    assertEquals("java.util.Map.Entry", QualifiedName.of(Map.Entry.class).toString());
+    assertEquals("com.example.Foo", QualifiedName.of("com.example", "Foo").toString());
+  }
+
+  @Test
+  public void testEquals() {
+    new EqualsTester()
+        .addEqualityGroup(QualifiedName.of("a.b", "C"), QualifiedName.of("a.b", "C"))
+        .addEqualityGroup(QualifiedName.of("a", "b", "C"))
+        .addEqualityGroup(QualifiedName.of("a.b", "C", "D"))
+        .testEquals();
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Joiner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ReindentingFormatterTest {
+
+  private final ReindentingFormatter formatter = new ReindentingFormatter();
+
+  @Test
+  public void reindentsBraces() {
+    assertFormatted(
+        lines(
+            "class Foo {",
+            "      int x;",
+            "void bar() {",
+            "if (x > 0) {",
+            "x--;",
+            "} else {",
+            "x++;",
+            "}",
+            "}",
+            "}"),
+        lines(
+            "class Foo {",
+            "  int x;",
+            "  void bar() {",
+            "    if (x > 0) {",
+            "      x--;",
+            "    } else {",
+            "      x++;",
+            "    }",
+            "  }",
+            "}"));
+  }
+
+  @Test
+  public void collapsesBlankLines() {
+    assertFormatted(
+        lines(
+            "",
+            "class Foo {",
+            "",
+            "int x;",
+            "",
+            "",
+            "",
+            "int y;",
+            "",
+            "}"),
+        lines(
+            "class Foo {",
+            "  int x;",
+            "",
+            "  int y;",
+            "}"));
+  }
+
+  @Test
+  public void ignoresBracesInLiteralsAndComments() {
+    assertFormatted(
+        lines(
+            "class Foo {",
+            "String s = \"{\\\"{\";",
+            "char c = '{';",
+            "// {",
+            "/* {",
+            "* }",
+            "*/",
+            "int x;",
+            "}"),
+        lines(
+            "class Foo {",
+            "  String s = \"{\\\"{\";",
+            "  char c = '{';",
+            "  // {",
+            "  /* {",
+            "   * }",
+            "   */",
+            "  int x;",
+            "}"));
+  }
+
+  private void assertFormatted(String input, String expected) {
+    assertEquals(expected, formatter.formatSource(input));
+  }
+
+  private static String lines(String... lines) {
+    return Joiner.on('\n').join(lines) + "\n";
+  }
+}
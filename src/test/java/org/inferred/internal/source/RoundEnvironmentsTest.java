@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+
+import org.inferred.internal.testing.integration.ModelRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Set;
+
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+
+@RunWith(JUnit4.class)
+public class RoundEnvironmentsTest {
+
+  @Rule public final ModelRule model = new ModelRule();
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @Inherited
+  public @interface InheritedMarker {}
+
+  @Test
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public void testSingleAnnotation() {
+    TypeElement deprecated = model.newType(
+        "package com.example;",
+        "@Deprecated public class DataType { }");
+    TypeElement other = model.newType(
+        "package com.example;",
+        "public class OtherType { }");
+    RoundEnvironment roundEnv = mock(RoundEnvironment.class);
+    when(roundEnv.getElementsAnnotatedWith(Deprecated.class))
+        .thenReturn((Set) ImmutableSet.of(deprecated, other));
+
+    Set<? extends Element> elements =
+        RoundEnvironments.annotatedElementsIn(roundEnv, Deprecated.class);
+
+    assertThat(elements).containsExactly(deprecated);
+  }
+
+  @Test
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public void testMultipleAnnotationsInOnePass() {
+    TypeElement superclass = model.newType(
+        "package com.example;",
+        "@" + InheritedMarker.class.getCanonicalName() + " public class Super { }");
+    TypeElement subclass = model.newType(
+        "package com.example;",
+        "@Deprecated public class Sub extends Super { }");
+    RoundEnvironment roundEnv = mock(RoundEnvironment.class);
+    when(roundEnv.getElementsAnnotatedWith(Deprecated.class))
+        .thenReturn((Set) ImmutableSet.of(subclass));
+    when(roundEnv.getElementsAnnotatedWith(InheritedMarker.class))
+        .thenReturn((Set) ImmutableSet.of(superclass, subclass));
+
+    ImmutableSetMultimap<Class<? extends Annotation>, Element> elements =
+        RoundEnvironments.annotatedElementsIn(roundEnv,
+            ImmutableList.<Class<? extends Annotation>>of(Deprecated.class, InheritedMarker.class));
+
+    assertThat(elements.get(Deprecated.class)).containsExactly(subclass);
+    assertThat(elements.get(InheritedMarker.class)).containsExactly(superclass, subclass);
+  }
+}
@@ -66,6 +66,16 @@ public class SourceStringBuilderTest {
         builder.toString());
   }
 
+  @Test
+  public void testParameterizedTypeRenderedOncePerUnit() {
+    ParameterizedType type = QualifiedName.of("java.util", "Map").withParameters("K", "V");
+    builder.addLine("%s a;", type).addLine("%s b;", type).add(type.typeParameters());
+    assertEquals("Map<K, V> a;\nMap<K, V> b;\n<K, V>", builder.toString());
+    // The type parameter list was cached while rendering the type the first time
+    assertEquals(1, shortener.getMemoMissCount());
+    assertEquals(2, shortener.getMemoHitCount());
+  }
+
   @Test
   public void testAddLine_typeInJavaLangPackage() {
     builder.addLine("// This should be short: %s", String.class);
@@ -175,6 +185,31 @@ public class SourceStringBuilderTest {
     assertThat(builder.toString()).isEqualTo("Foo bar = null;\n");
   }
 
+  @Test
+  public void testAddLine_nestedExcerpts() {
+    builder.addLine("%2$s = %1$s;",
+        Excerpts.add("new %s()", Excerpts.add("%s<%s>", "Foo", "Bar")),
+        Excerpts.add("%s x", "Object"));
+    assertThat(builder.toString()).isEqualTo("Object x = new Foo<Bar>();\n");
+  }
+
+  @Test
+  public void testAdd_excerptRenderedIntoSameBuilder() {
+    final List<SourceBuilder> targets = new ArrayList<SourceBuilder>();
+    builder.add("(%s)", new Excerpt() {
+      @Override
+      public void addTo(SourceBuilder source) {
+        targets.add(source);
+        source.add("x");
+      }
+
+      @Override
+      protected void addFields(FieldReceiver fields) {}
+    });
+    assertThat(targets).containsExactly(builder);
+    assertThat(builder.toString()).isEqualTo("(x)");
+  }
+
   @Test
   public void testAddLine_emptyAnnotation() {
     testAnnotation("@MyAnnotation", "@interface MyAnnotation { }");
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+
+@RunWith(JUnit4.class)
+public class TracerTest {
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testNoOpWhenNotInstalled() {
+    assertSame(Tracer.start("render", "a"), Tracer.start("format", "b"));
+  }
+
+  @Test
+  public void testOnlyRecordsOnInstallingThread() throws Exception {
+    Tracer tracer = Tracer.writingTo(new File(temporaryFolder.getRoot(), "trace.json"));
+    tracer.install();
+    try {
+      Thread other = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Tracer.start("format", "elsewhere").end();
+        }
+      });
+      other.start();
+      other.join();
+      Tracer.start(tracer, "format", "passed").end();
+    } finally {
+      tracer.uninstall();
+    }
+    assertNull(Tracer.active());
+    assertThat(tracer.toJson()).doesNotContain("elsewhere");
+    assertThat(tracer.toJson()).contains("passed");
+  }
+
+  @Test
+  public void testRecordsSpansWithThreadAndType() throws IOException {
+    File output = new File(temporaryFolder.getRoot(), "trace/trace.json");
+    Tracer tracer = Tracer.writingTo(output);
+    tracer.install();
+    try {
+      Tracer.Span span = Tracer.start("format", QualifiedName.of("com.example", "Foo"));
+      span.end();
+      span.end();
+    } finally {
+      tracer.uninstall();
+    }
+    Tracer.start("write", "ignored").end();
+    tracer.write();
+
+    String json = Files.toString(output, Charsets.UTF_8);
+    assertThat(json).startsWith("{\"traceEvents\": [");
+    assertThat(json).contains("\"name\": \"thread_name\", \"ph\": \"M\", \"pid\": 1, \"tid\": "
+        + Thread.currentThread().getId());
+    assertThat(json).contains("\"name\": \"format\", \"cat\": \"format\", \"ph\": \"X\"");
+    assertThat(json).contains("\"args\": {\"type\": \"com.example.Foo\"}");
+    assertThat(json).doesNotContain("ignored");
+    assertThat(json.split("\"ph\": \"X\"")).hasLength(2);
+  }
+}
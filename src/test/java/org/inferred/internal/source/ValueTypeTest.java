@@ -66,6 +66,31 @@ public class ValueTypeTest {
     }
   }
 
+  private final class CountingImmutableName extends ValueType {
+    private final String family;
+    private int addFieldsCalls = 0;
+
+    CountingImmutableName(String family) {
+      this.family = family;
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      addFieldsCalls++;
+      fields.add("family", family);
+    }
+
+    @Override
+    protected boolean hasSameFields(ValueType other) {
+      return family.equals(((CountingImmutableName) other).family);
+    }
+
+    @Override
+    protected boolean isImmutable() {
+      return true;
+    }
+  }
+
   @Test
   public void toString_noValues() {
     assertEquals("Empty{}", new Empty().toString());
@@ -95,5 +120,42 @@ public class ValueTypeTest {
     tester.addEqualityGroup(new PairThatOmitsNull(42, 42), new PairThatOmitsNull(42, 42));
     tester.testEquals();
   }
-}
 
+  @Test
+  public void hashAndEquals_pairwise() {
+    EqualsTester tester = new EqualsTester();
+    tester.addEqualityGroup(new CountingImmutableName("Foo"), new CountingImmutableName("Foo"));
+    tester.addEqualityGroup(new CountingImmutableName("Bar"));
+    tester.testEquals();
+  }
+
+  @Test
+  public void hashAndEquals_nestedValues() {
+    EqualsTester tester = new EqualsTester();
+    tester.addEqualityGroup(
+        new PairThatOmitsNull(new Name("Foo", "Bar"), new Name("Baz", null)),
+        new PairThatOmitsNull(new Name("Foo", "Bar"), new Name("Baz", null)));
+    tester.addEqualityGroup(
+        new PairThatOmitsNull(new Name("Foo", "Bar"), new Name("Baz", "Qux")));
+    tester.addEqualityGroup(new PairThatOmitsNull(new Name("Foo", "Bar"), null));
+    tester.addEqualityGroup(new PairThatOmitsNull(null, new Name("Foo", "Bar")));
+    tester.testEquals();
+  }
+
+  @Test
+  public void hashCode_cachedWhenImmutable() {
+    CountingImmutableName name = new CountingImmutableName("Foo");
+    int hashCode = name.hashCode();
+    assertEquals(hashCode, name.hashCode());
+    assertEquals(1, name.addFieldsCalls);
+  }
+
+  @Test
+  public void equals_doesNotCallAddFieldsWhenComparingPairwise() {
+    CountingImmutableName a = new CountingImmutableName("Foo");
+    CountingImmutableName b = new CountingImmutableName("Foo");
+    assertEquals(a, b);
+    assertEquals(0, a.addFieldsCalls);
+    assertEquals(0, b.addFieldsCalls);
+  }
+}
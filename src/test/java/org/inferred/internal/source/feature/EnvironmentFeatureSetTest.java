@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source.feature;
+
+import static org.inferred.internal.source.feature.SourceLevel.SOURCE_LEVEL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.SourceVersion;
+
+@RunWith(JUnit4.class)
+public class EnvironmentFeatureSetTest {
+
+  @Test
+  public void sharedPerEnvironment() {
+    ProcessingEnvironment env = mock(ProcessingEnvironment.class);
+    ProcessingEnvironment otherEnv = mock(ProcessingEnvironment.class);
+    assertSame(
+        EnvironmentFeatureSet.forEnvironment(env), EnvironmentFeatureSet.forEnvironment(env));
+    assertNotSame(
+        EnvironmentFeatureSet.forEnvironment(env), EnvironmentFeatureSet.forEnvironment(otherEnv));
+  }
+
+  @Test
+  public void featureDeterminedOncePerEnvironment() {
+    ProcessingEnvironment env = mock(ProcessingEnvironment.class);
+    when(env.getSourceVersion()).thenReturn(SourceVersion.RELEASE_7);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(
+          SourceLevel.JAVA_7, EnvironmentFeatureSet.forEnvironment(env).get(SOURCE_LEVEL));
+    }
+    verify(env, times(1)).getSourceVersion();
+  }
+}
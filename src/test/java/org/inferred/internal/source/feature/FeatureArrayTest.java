@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.inferred.internal.source.feature;
+
+import static org.inferred.internal.source.feature.GuavaLibrary.GUAVA;
+import static org.inferred.internal.source.feature.SourceLevel.SOURCE_LEVEL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FeatureArrayTest {
+
+  @Test
+  public void emptyUntilStored() {
+    FeatureArray array = new FeatureArray();
+    assertNull(array.get(SOURCE_LEVEL));
+    array.put(SOURCE_LEVEL, SourceLevel.JAVA_7);
+    assertEquals(SourceLevel.JAVA_7, array.get(SOURCE_LEVEL));
+    assertNull(array.get(GUAVA));
+  }
+
+  @Test
+  public void staticFeatureSetReturnsRegisteredThenDefaults() {
+    StaticFeatureSet features = new StaticFeatureSet(GuavaLibrary.AVAILABLE);
+    for (int i = 0; i < 2; i++) {
+      assertEquals(GuavaLibrary.AVAILABLE, features.get(GUAVA));
+      assertEquals(SourceLevel.JAVA_6, features.get(SOURCE_LEVEL));
+    }
+  }
+}